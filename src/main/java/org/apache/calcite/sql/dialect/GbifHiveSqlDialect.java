@@ -13,8 +13,21 @@
  */
 package org.apache.calcite.sql.dialect;
 
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlWriter;
+import org.apache.calcite.sql.util.SqlShuttle;
+import org.apache.calcite.util.Litmus;
+
 public class GbifHiveSqlDialect extends HiveSqlDialect {
 
+  /**
+   * Calcite 1.35 has no lambda expressions, so {@code x -> expr} is parsed and validated as a call to this function,
+   * {@code LAMBDA_FUNCTION(x, expr)}, which unparses back to the Hive lambda syntax.
+   */
+  public static final String LAMBDA_FUNCTION = "TAXON_LOOKUP";
+
   public GbifHiveSqlDialect(Context context) {
     super(context);
   }
@@ -28,4 +41,39 @@ public class GbifHiveSqlDialect extends HiveSqlDialect {
       buf.append(val.replace(literalEndQuoteString, literalEscapedQuote));
       buf.append(literalEndQuoteString);
   }
+
+  @Override
+  public void unparseCall(SqlWriter writer, SqlCall call, int leftPrec, int rightPrec) {
+    if (call.operandCount() == 2
+        && call.operand(0) instanceof SqlIdentifier
+        && call.getOperator().getName().equalsIgnoreCase(LAMBDA_FUNCTION)) {
+      unparseLambda(writer, call.operand(0), call.operand(1));
+    } else {
+      super.unparseCall(writer, call, leftPrec, rightPrec);
+    }
+  }
+
+  /**
+   * Writes {@code x -> expr}. The validator may have qualified the variable as a column, e.g. {@code occurrence.x},
+   * so it is written unqualified, both as the parameter and where it is used in the expression.
+   */
+  private static void unparseLambda(SqlWriter writer, SqlIdentifier parameter, SqlNode expression) {
+    final SqlIdentifier variable =
+        new SqlIdentifier(
+            parameter.names.get(parameter.names.size() - 1), parameter.getParserPosition());
+    final SqlNode body =
+        expression.accept(
+            new SqlShuttle() {
+              @Override
+              public SqlNode visit(SqlIdentifier id) {
+                return id.equalsDeep(parameter, Litmus.IGNORE) ? variable : id;
+              }
+            });
+
+    final SqlWriter.Frame frame = writer.startList(SqlWriter.FrameTypeEnum.SIMPLE);
+    variable.unparse(writer, 0, 0);
+    writer.keyword("->");
+    body.unparse(writer, 0, 0);
+    writer.endList(frame);
+  }
 }
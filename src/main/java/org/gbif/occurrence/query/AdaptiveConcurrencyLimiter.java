@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit that adapts to the observed behaviour of the API, in the additive increase, multiplicative
+ * decrease (AIMD) style of TCP congestion control.
+ * <p>
+ * Every successful request fully using the current limit raises it by {@code 1 / limit}, so about one per round trip
+ * of the whole window. A failed or throttled request halves it. Latency grows once the API starts queueing requests,
+ * so the limit is also lowered slightly, at most once per window, while the average latency of the last few requests
+ * is well above the long term average. The limit stays between 1 and the configured maximum.
+ */
+final class AdaptiveConcurrencyLimiter {
+
+  private static final double DROP_BACKOFF_RATIO = 0.5;
+  private static final double LATENCY_BACKOFF_RATIO = 0.9;
+  // Recent latency above this multiple of the long term latency is taken as a sign of queueing.
+  private static final double LATENCY_TOLERANCE = 2.0;
+  // Smoothing factors of the exponential moving averages of latency, over about 10 and 100 requests.
+  private static final double SHORT_TERM_ALPHA = 0.1;
+  private static final double LONG_TERM_ALPHA = 0.01;
+
+  private final int maxLimit;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+
+  // All guarded by lock
+  private double limit;
+  private int inFlight;
+  private double shortTermLatency = -1;
+  private double longTermLatency = -1;
+  private int samplesSinceDecrease;
+
+  private final LongAdder decreaseCount = new LongAdder();
+
+  /**
+   * @param maxLimit upper bound of the limit, which is also where it starts
+   */
+  AdaptiveConcurrencyLimiter(int maxLimit) {
+    if (maxLimit < 1) {
+      throw new IllegalArgumentException("At least one concurrent request is needed");
+    }
+    this.maxLimit = maxLimit;
+    this.limit = maxLimit;
+  }
+
+  /**
+   * Takes a slot, waiting while the current limit is reached. Every acquired slot must be released.
+   */
+  void acquire() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (inFlight >= (int) limit) {
+        available.await();
+      }
+      inFlight++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes a slot only if the current limit is not reached.
+   *
+   * @return true if a slot was taken, which must then be released
+   */
+  boolean tryAcquire() {
+    lock.lock();
+    try {
+      if (inFlight >= (int) limit) {
+        return false;
+      }
+      inFlight++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases the slot of a request cancelled before it was answered, leaving the limit as it is.
+   */
+  void cancel() {
+    lock.lock();
+    try {
+      inFlight--;
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases a slot and adapts the limit to the outcome of the request.
+   *
+   * @param latencyNanos time taken by the request
+   * @param dropped true if the request failed, timed out or was throttled by the API
+   */
+  void release(long latencyNanos, boolean dropped) {
+    lock.lock();
+    try {
+      boolean limited = inFlight >= (int) limit;
+      inFlight--;
+
+      if (dropped) {
+        decrease(DROP_BACKOFF_RATIO);
+      } else {
+        if (longTermLatency < 0) {
+          shortTermLatency = latencyNanos;
+          longTermLatency = latencyNanos;
+        } else {
+          shortTermLatency += SHORT_TERM_ALPHA * (latencyNanos - shortTermLatency);
+          longTermLatency += LONG_TERM_ALPHA * (latencyNanos - longTermLatency);
+        }
+
+        samplesSinceDecrease++;
+        if (shortTermLatency > longTermLatency * LATENCY_TOLERANCE) {
+          // Give the previous decrease a window of requests to take effect.
+          if (samplesSinceDecrease >= limit) {
+            decrease(LATENCY_BACKOFF_RATIO);
+          }
+        } else if (limited) {
+          // Only grow a limit that is actually reached, otherwise it would grow without bound while idle.
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+      }
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the current limit
+   */
+  int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of times the limit was lowered
+   */
+  long getDecreaseCount() {
+    return decreaseCount.sum();
+  }
+
+  private void decrease(double ratio) {
+    limit = Math.max(1, limit * ratio);
+    samplesSinceDecrease = 0;
+    decreaseCount.increment();
+  }
+}
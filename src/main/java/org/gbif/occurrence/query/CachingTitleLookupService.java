@@ -0,0 +1,406 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Tiered cache in front of another {@link TitleLookupService}: a bounded in-process L1, optionally backed by a
+ * {@link PersistentTitleCache} L2 file on local disk so that titles cached by a previous run are available as soon as
+ * the service starts.
+ * <p>
+ * Lookups that fall back to the raw key are assumed to have failed and are not cached. Concurrent lookups of a title
+ * missing from memory or expired share a single load. The file keeps the HTTP validators of each title, so titles loaded from it
+ * can be revalidated after a restart too.
+ * <p>
+ * Titles held in memory are kept past their TTL until evicted by size. If the underlying service is a
+ * {@link ConditionalTitleLookupService}, an expired title is revalidated with a conditional request, and a "not
+ * modified" answer only extends it, in memory and in the file. An expired title is also served if looking it up again fails.
+ * <p>
+ * Uses of each title held in memory are counted, so the most used keys can be saved with {@link #saveHotKeys} and
+ * prefetched by a {@link TitleLookupWarmer} after the next start.
+ */
+public class CachingTitleLookupService implements TitleLookupService, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CachingTitleLookupService.class);
+
+  private final TitleLookupService delegate;
+  // The delegate if it supports conditional lookups, otherwise null
+  private final ConditionalTitleLookupService conditionalDelegate;
+  private final long ttlNanos;
+  private final Cache<String, CachedTitle> l1;
+  private final PersistentTitleCache l2;
+
+  private Path hotKeysFile;
+  private int hotKeysLimit;
+
+  private final LongAdder l1HitCount = new LongAdder();
+  private final LongAdder l2HitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder revalidatedCount = new LongAdder();
+  private final LongAdder staleCount = new LongAdder();
+
+  /**
+   * Creates an in-process cache only.
+   *
+   * @param maxSize maximum number of titles kept in memory
+   * @param ttl time after which a cached title is looked up again
+   */
+  public CachingTitleLookupService(TitleLookupService delegate, long maxSize, Duration ttl) {
+    this.delegate = delegate;
+    this.conditionalDelegate = conditional(delegate);
+    this.ttlNanos = ttl.toNanos();
+    this.l1 = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    this.l2 = null;
+  }
+
+  /**
+   * Creates an in-process cache backed by a file, which is created if it doesn't exist.
+   *
+   * @param maxSize maximum number of titles kept in memory
+   * @param ttl time after which a cached title is looked up again, also applied to the file
+   * @param cacheFile local file for the persistent cache
+   */
+  public CachingTitleLookupService(
+      TitleLookupService delegate, long maxSize, Duration ttl, Path cacheFile) throws IOException {
+    this.delegate = delegate;
+    this.conditionalDelegate = conditional(delegate);
+    this.ttlNanos = ttl.toNanos();
+    this.l1 = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    this.l2 = PersistentTitleCache.open(cacheFile, ttl);
+  }
+
+  @Override
+  public String getDatasetTitle(String datasetKey) {
+    return lookup(
+        datasetCacheKey(datasetKey),
+        datasetKey,
+        () -> delegate.getDatasetTitle(datasetKey),
+        conditionalDelegate == null
+            ? null
+            : previous -> conditionalDelegate.getDatasetTitle(datasetKey, previous));
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey) {
+    return lookup(
+        speciesCacheKey(usageKey, null),
+        usageKey,
+        () -> delegate.getSpeciesName(usageKey),
+        conditionalDelegate == null
+            ? null
+            : previous -> conditionalDelegate.getSpeciesName(usageKey, null, previous));
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey, String checklistKey) {
+    if (checklistKey == null) {
+      return getSpeciesName(usageKey);
+    }
+    return lookup(
+        speciesCacheKey(usageKey, checklistKey),
+        usageKey,
+        () -> delegate.getSpeciesName(usageKey, checklistKey),
+        conditionalDelegate == null
+            ? null
+            : previous -> conditionalDelegate.getSpeciesName(usageKey, checklistKey, previous));
+  }
+
+  /**
+   * @return number of lookups answered from memory
+   */
+  public long getL1HitCount() {
+    return l1HitCount.sum();
+  }
+
+  /**
+   * @return number of lookups answered from the cache file
+   */
+  public long getL2HitCount() {
+    return l2HitCount.sum();
+  }
+
+  /**
+   * @return number of lookups passed on to the underlying service
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * @return number of expired titles confirmed unchanged by a conditional lookup
+   */
+  public long getRevalidatedCount() {
+    return revalidatedCount.sum();
+  }
+
+  /**
+   * @return number of expired titles served because looking them up again failed
+   */
+  public long getStaleCount() {
+    return staleCount.sum();
+  }
+
+  /**
+   * Writes the keys of the most used titles held in memory to a file, most used first, in the format read by
+   * {@link TitleLookupWarmer}.
+   */
+  public void saveHotKeys(Path file, int limit) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("# Most used title lookup keys");
+    l1.asMap().entrySet().stream()
+        .sorted(
+            Comparator.comparingInt(
+                    (Map.Entry<String, CachedTitle> e) -> e.getValue().uses.get())
+                .reversed())
+        .limit(limit)
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toCollection(() -> lines));
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(tmp, lines, StandardCharsets.UTF_8);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved {} hot title keys to {}", lines.size() - 1, file);
+  }
+
+  /**
+   * Saves the hot keys to the file when this service is closed.
+   */
+  void saveHotKeysOnClose(Path file, int limit) {
+    this.hotKeysFile = file;
+    this.hotKeysLimit = limit;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (hotKeysFile != null) {
+        saveHotKeys(hotKeysFile, hotKeysLimit);
+      }
+    } finally {
+      if (l2 != null) {
+        l2.close();
+      }
+    }
+  }
+
+  /**
+   * Cache keys use the same "type, tab, key" layout as the lines of a {@link SnapshotTitleLookupService} dump.
+   */
+  static String datasetCacheKey(String datasetKey) {
+    return SnapshotTitleLookupService.DATASET + '\t' + datasetKey;
+  }
+
+  static String speciesCacheKey(String usageKey, String checklistKey) {
+    return checklistKey == null
+        ? SnapshotTitleLookupService.SPECIES + '\t' + usageKey
+        : SnapshotTitleLookupService.SPECIES + '\t' + checklistKey + '/' + usageKey;
+  }
+
+  /**
+   * @param loader unconditional lookup, falling back to the raw key on failure
+   * @param conditionalLoader lookup revalidating a previous title, returning null on failure, or null if the delegate
+   *     doesn't support conditional lookups
+   */
+  private String lookup(
+      String cacheKey,
+      String rawKey,
+      Supplier<String> loader,
+      Function<ValidatedTitle, ValidatedTitle> conditionalLoader) {
+    long now = System.nanoTime();
+    CachedTitle cached = l1.getIfPresent(cacheKey);
+    if (cached != null) {
+      if (now - cached.expiresAt < 0) {
+        cached.uses.incrementAndGet();
+        l1HitCount.increment();
+        return cached.title.getTitle();
+      }
+      // Refreshed by a single load like a missing title, which may still fall back to the expired one
+      l1.asMap().remove(cacheKey, cached);
+    }
+    return load(cacheKey, rawKey, loader, conditionalLoader, cached, now);
+  }
+
+  /**
+   * Loads a title missing from memory or expired, by revalidating the expired title, or from the file or the
+   * underlying service. Concurrent lookups of the same key wait for a single load.
+   *
+   * @param expired the expired title in memory, or null if missing
+   */
+  private String load(
+      String cacheKey,
+      String rawKey,
+      Supplier<String> loader,
+      Function<ValidatedTitle, ValidatedTitle> conditionalLoader,
+      CachedTitle expired,
+      long now) {
+    boolean[] loadedHere = new boolean[1];
+    try {
+      CachedTitle cached =
+          l1.get(
+              cacheKey,
+              () -> {
+                loadedHere[0] = true;
+                return loadTitle(cacheKey, rawKey, loader, conditionalLoader, expired, now);
+              });
+      if (!loadedHere[0]) {
+        l1HitCount.increment();
+      }
+      cached.uses.incrementAndGet();
+      return cached.title.getTitle();
+    } catch (ExecutionException e) {
+      // Only thrown for failed lookups, which are not cached
+      return ((LookupFailedException) e.getCause()).fallback;
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  private CachedTitle loadTitle(
+      String cacheKey,
+      String rawKey,
+      Supplier<String> loader,
+      Function<ValidatedTitle, ValidatedTitle> conditionalLoader,
+      CachedTitle expired,
+      long now)
+      throws LookupFailedException {
+    ValidatedTitle loaded = null;
+    if (expired != null && conditionalLoader != null && expired.title.hasValidators()) {
+      loaded = conditionalLoader.apply(expired.title);
+      if (loaded == expired.title) {
+        revalidatedCount.increment();
+        expired.expiresAt = now + ttlNanos;
+        // Rewritten so that it doesn't expire from the file either
+        if (l2 != null) {
+          l2.put(cacheKey, expired.title);
+        }
+        return expired;
+      }
+      if (loaded == null) {
+        staleCount.increment();
+        return expired;
+      }
+    }
+
+    if (loaded == null && l2 != null) {
+      PersistentTitleCache.StoredTitle stored = l2.getStored(cacheKey);
+      if (stored != null) {
+        l2HitCount.increment();
+        // Not kept in memory for longer than it is left in the file
+        long leftNanos =
+            TimeUnit.MILLISECONDS.toNanos(stored.expiresAtMillis - System.currentTimeMillis());
+        return new CachedTitle(stored.title, uses(expired), now + Math.min(ttlNanos, leftNanos));
+      }
+    }
+
+    if (loaded == null) {
+      loaded = loadFromDelegate(rawKey, loader, conditionalLoader);
+    }
+    if (isFailed(loaded, rawKey)) {
+      if (expired != null) {
+        staleCount.increment();
+        return expired;
+      }
+      throw new LookupFailedException(loaded != null ? loaded.getTitle() : null);
+    }
+    if (l2 != null) {
+      l2.put(cacheKey, loaded);
+    }
+    return new CachedTitle(loaded, uses(expired), now + ttlNanos);
+  }
+
+  private static int uses(CachedTitle expired) {
+    return expired != null ? expired.uses.get() : 0;
+  }
+
+  /**
+   * @return the title from the underlying service, which is failed if null or the raw key
+   */
+  private ValidatedTitle loadFromDelegate(
+      String rawKey,
+      Supplier<String> loader,
+      Function<ValidatedTitle, ValidatedTitle> conditionalLoader) {
+    missCount.increment();
+    if (conditionalLoader != null) {
+      ValidatedTitle loaded = conditionalLoader.apply(null);
+      return loaded != null ? loaded : new ValidatedTitle(rawKey, null, null);
+    }
+    return new ValidatedTitle(loader.get(), null, null);
+  }
+
+  private static boolean isFailed(ValidatedTitle title, String rawKey) {
+    return title == null || title.getTitle() == null || title.getTitle().equals(rawKey);
+  }
+
+  private static ConditionalTitleLookupService conditional(TitleLookupService delegate) {
+    return delegate instanceof ConditionalTitleLookupService
+        ? (ConditionalTitleLookupService) delegate
+        : null;
+  }
+
+  /**
+   * A title held in memory, with the number of times it was used and when it expires.
+   */
+  private static final class CachedTitle {
+    private final ValidatedTitle title;
+    private final AtomicInteger uses;
+    // System.nanoTime() after which the title is looked up again, extended when revalidated
+    private volatile long expiresAt;
+
+    private CachedTitle(ValidatedTitle title, int uses, long expiresAt) {
+      this.title = title;
+      this.uses = new AtomicInteger(uses);
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Thrown by a load that failed, so the result is not cached.
+   */
+  private static final class LookupFailedException extends Exception {
+    // What the failed lookup returned
+    private final String fallback;
+
+    private LookupFailedException(String fallback) {
+      super(null, null, false, false);
+      this.fallback = fallback;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chain of {@link TitleLookupTier}s, usually from the cheapest to the most expensive, e.g. memory, local file and
+ * API. Each lookup tries the tiers in order, and a title found in a tier is stored in all the tiers before it, so the
+ * next lookup of the same key stops earlier.
+ * <p>
+ * A tier failing with an exception is skipped. Keys no tier provides fall back to the raw key, as
+ * {@link TitleLookupServiceImpl} does for failed lookups, and are not stored.
+ */
+public class CompositeTitleLookupService implements TitleLookupService, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CompositeTitleLookupService.class);
+
+  private final List<TitleLookupTier> tiers;
+  private final LongAdder[] hitCounts;
+  private final LongAdder missCount = new LongAdder();
+
+  public CompositeTitleLookupService(List<? extends TitleLookupTier> tiers) {
+    if (tiers.isEmpty()) {
+      throw new IllegalArgumentException("At least one tier is needed");
+    }
+    this.tiers = List.copyOf(tiers);
+    this.hitCounts = new LongAdder[tiers.size()];
+    for (int i = 0; i < hitCounts.length; i++) {
+      hitCounts[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public String getDatasetTitle(String datasetKey) {
+    return lookup(
+        datasetKey,
+        tier -> tier.findDatasetTitle(datasetKey),
+        (tier, title) -> tier.storeDatasetTitle(datasetKey, title));
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey) {
+    return getSpeciesName(usageKey, null);
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey, String checklistKey) {
+    return lookup(
+        usageKey,
+        tier -> tier.findSpeciesName(usageKey, checklistKey),
+        (tier, name) -> tier.storeSpeciesName(usageKey, checklistKey, name));
+  }
+
+  /**
+   * @return the tiers, in lookup order
+   */
+  public List<TitleLookupTier> getTiers() {
+    return tiers;
+  }
+
+  /**
+   * @return number of lookups answered by the tier at the given position
+   */
+  public long getHitCount(int tier) {
+    return hitCounts[tier].sum();
+  }
+
+  /**
+   * @return number of lookups no tier could answer
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * Closes the tiers that need it.
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (TitleLookupTier tier : tiers) {
+      if (tier instanceof Closeable) {
+        try {
+          ((Closeable) tier).close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private String lookup(
+      String rawKey,
+      Function<TitleLookupTier, String> find,
+      BiConsumer<TitleLookupTier, String> store) {
+    for (int i = 0; i < tiers.size(); i++) {
+      String title;
+      try {
+        title = find.apply(tiers.get(i));
+      } catch (RuntimeException e) {
+        LOG.debug("Title lookup tier {} failed for {}", tiers.get(i), rawKey, e);
+        continue;
+      }
+      if (title != null) {
+        hitCounts[i].increment();
+        for (int j = 0; j < i; j++) {
+          store.accept(tiers.get(j), title);
+        }
+        return title;
+      }
+    }
+    missCount.increment();
+    return rawKey;
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+/**
+ * A {@link TitleLookupService} that can revalidate previously looked up titles with conditional requests, so that an
+ * unchanged title costs a "304 Not Modified" response instead of a full document.
+ */
+public interface ConditionalTitleLookupService extends TitleLookupService {
+
+  /**
+   * @param previous title to revalidate, or null for an unconditional lookup
+   * @return {@code previous} itself if it is still valid, the current title otherwise, or null if the lookup failed
+   */
+  ValidatedTitle getDatasetTitle(String datasetKey, ValidatedTitle previous);
+
+  /**
+   * @param checklistKey checklist scoping the name, may be null
+   * @param previous name to revalidate, or null for an unconditional lookup
+   * @return {@code previous} itself if it is still valid, the current name otherwise, or null if the lookup failed
+   */
+  ValidatedTitle getSpeciesName(String usageKey, String checklistKey, ValidatedTitle previous);
+}
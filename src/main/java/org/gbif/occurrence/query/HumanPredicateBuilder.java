@@ -136,6 +136,18 @@ public class HumanPredicateBuilder {
     MAPPER.registerModule(module);
   }
 
+  private HumanPredicateBuilder(TitleLookupService titleLookupService, ResourceBundle resourceBundle) {
+    this.titleLookupService = titleLookupService;
+    this.resourceBundle = resourceBundle;
+  }
+
+  /**
+   * @return a builder with the same configuration as this one, looking titles up with another service
+   */
+  HumanPredicateBuilder withTitleLookupService(TitleLookupService titleLookupService) {
+    return new HumanPredicateBuilder(titleLookupService, resourceBundle);
+  }
+
   /**
    * @param p the predicate to convert
    * @return a list of anded parameters with multiple values to be combined with OR
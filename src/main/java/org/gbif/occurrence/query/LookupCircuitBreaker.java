@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for the webservice lookups of a {@link TitleLookupService}.
+ * After a number of consecutive failures the circuit opens and requests are refused immediately, so callers can fall
+ * back to the raw key instead of waiting for every request to time out. While open, a probe is run in the background
+ * at a fixed interval and the circuit closes again as soon as it succeeds.
+ */
+class LookupCircuitBreaker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LookupCircuitBreaker.class);
+
+  // A single daemon thread is plenty for probing, and must never keep the JVM alive.
+  private static final ScheduledExecutorService PROBE_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread t = new Thread(r, "title-lookup-probe");
+            t.setDaemon(true);
+            return t;
+          });
+
+  private final String name;
+  private final int failureThreshold;
+  private final Duration probeInterval;
+  private final BooleanSupplier probe;
+
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicBoolean open = new AtomicBoolean();
+  private final LongAdder shortCircuitCount = new LongAdder();
+  private final LongAdder tripCount = new LongAdder();
+
+  /**
+   * @param name used in log messages, e.g. the API root
+   * @param failureThreshold number of consecutive failures that open the circuit
+   * @param probeInterval delay between background recovery probes while the circuit is open
+   * @param probe returns true if the service is reachable again
+   */
+  LookupCircuitBreaker(
+      String name, int failureThreshold, Duration probeInterval, BooleanSupplier probe) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.probeInterval = probeInterval;
+    this.probe = probe;
+  }
+
+  /**
+   * @return true if a request may be sent, false if the circuit is open and the caller should fail fast
+   */
+  boolean allowRequest() {
+    if (open.get()) {
+      shortCircuitCount.increment();
+      return false;
+    }
+    return true;
+  }
+
+  void recordSuccess() {
+    consecutiveFailures.set(0);
+  }
+
+  void recordFailure() {
+    if (consecutiveFailures.incrementAndGet() >= failureThreshold && open.compareAndSet(false, true)) {
+      tripCount.increment();
+      LOG.warn(
+          "Lookups to {} failed {} times in a row, failing fast and probing every {}",
+          name,
+          failureThreshold,
+          probeInterval);
+      scheduleProbe();
+    }
+  }
+
+  boolean isOpen() {
+    return open.get();
+  }
+
+  /**
+   * @return number of requests refused because the circuit was open
+   */
+  long getShortCircuitCount() {
+    return shortCircuitCount.sum();
+  }
+
+  /**
+   * @return number of times the circuit has opened
+   */
+  long getTripCount() {
+    return tripCount.sum();
+  }
+
+  private void scheduleProbe() {
+    PROBE_EXECUTOR.schedule(this::runProbe, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private void runProbe() {
+    boolean recovered;
+    try {
+      recovered = probe.getAsBoolean();
+    } catch (RuntimeException e) {
+      recovered = false;
+    }
+
+    if (recovered) {
+      consecutiveFailures.set(0);
+      open.set(false);
+      LOG.info("Lookups to {} recovered, circuit closed", name);
+    } else {
+      LOG.debug("Lookups to {} still failing", name);
+      scheduleProbe();
+    }
+  }
+}
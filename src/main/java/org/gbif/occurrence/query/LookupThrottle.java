@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+/**
+ * Client side limits on the requests sent by lookup services: a token bucket caps the request rate, and an
+ * {@link AdaptiveConcurrencyLimiter} caps the requests in flight.
+ * <p>
+ * The API throttles per host, so services sending requests to the same API should be given the same throttle (see
+ * {@link TitleLookupServiceFactory.Builder#throttle}), otherwise each sends up to the configured limits on its own.
+ * Services created with default limits share one throttle per API root. Instances are thread safe.
+ */
+public final class LookupThrottle {
+
+  private final TokenBucketRateLimiter rateLimiter;
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   * @param maxRequestsPerSecond maximum sustained rate of requests
+   * @param maxConcurrentRequests upper bound of the adaptive limit on requests in flight at once
+   */
+  public LookupThrottle(double maxRequestsPerSecond, int maxConcurrentRequests) {
+    // A full window of requests may be sent at once.
+    this.rateLimiter = new TokenBucketRateLimiter(maxRequestsPerSecond, maxConcurrentRequests);
+    this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(maxConcurrentRequests);
+  }
+
+  /**
+   * Waits until the request rate and the number of requests in flight allow sending another one. Every successful call
+   * must be followed by a call to {@link #release}.
+   */
+  void acquire() throws InterruptedException {
+    rateLimiter.acquire();
+    concurrencyLimiter.acquire();
+  }
+
+  /**
+   * Like {@link #acquire}, but gives up instead of waiting.
+   *
+   * @return true if the request may be sent, and {@link #release} must then be called
+   */
+  boolean tryAcquire() {
+    // A rate permit taken while the concurrency limit is reached is lost, which only errs on the safe side.
+    return rateLimiter.tryAcquire() && concurrencyLimiter.tryAcquire();
+  }
+
+  /**
+   * @param latencyNanos time taken by the request
+   * @param dropped true if the request failed, timed out or was throttled by the API
+   */
+  void release(long latencyNanos, boolean dropped) {
+    concurrencyLimiter.release(latencyNanos, dropped);
+  }
+
+  /**
+   * Releases a request cancelled before it was answered, which says nothing about the API.
+   */
+  void cancel() {
+    concurrencyLimiter.cancel();
+  }
+
+  int getConcurrencyLimit() {
+    return concurrencyLimiter.getLimit();
+  }
+
+  long getConcurrencyDecreaseCount() {
+    return concurrencyLimiter.getDecreaseCount();
+  }
+}
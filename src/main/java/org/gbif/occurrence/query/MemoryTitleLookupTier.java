@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.time.Duration;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded in-process tier, holding titles promoted from the lower tiers of a {@link CompositeTitleLookupService}.
+ */
+public class MemoryTitleLookupTier implements TitleLookupTier {
+
+  private final Cache<String, String> titles;
+
+  /**
+   * @param maxSize maximum number of titles kept
+   * @param ttl time after which a title is dropped and looked up again in the lower tiers
+   */
+  public MemoryTitleLookupTier(long maxSize, Duration ttl) {
+    this.titles = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+  }
+
+  @Override
+  public String findDatasetTitle(String datasetKey) {
+    return titles.getIfPresent(CachingTitleLookupService.datasetCacheKey(datasetKey));
+  }
+
+  @Override
+  public String findSpeciesName(String usageKey, String checklistKey) {
+    return titles.getIfPresent(CachingTitleLookupService.speciesCacheKey(usageKey, checklistKey));
+  }
+
+  @Override
+  public void storeDatasetTitle(String datasetKey, String title) {
+    titles.put(CachingTitleLookupService.datasetCacheKey(datasetKey), title);
+  }
+
+  @Override
+  public void storeSpeciesName(String usageKey, String checklistKey, String name) {
+    titles.put(CachingTitleLookupService.speciesCacheKey(usageKey, checklistKey), name);
+  }
+
+  /**
+   * @return number of titles held
+   */
+  public long size() {
+    return titles.size();
+  }
+}
@@ -0,0 +1,461 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only, memory-mapped file of cached titles and their HTTP validators that survives restarts.
+ * <p>
+ * The file starts with a magic number followed by records of
+ * {@code [crc:4][written at millis:8][key length:2][value length:2][etag length:2][last modified length:2][key][value]
+ * [etag][last modified]}, with the CRC covering everything after itself. Missing validators are empty. Records are
+ * appended through the mapping, and a newer record for a key supersedes older ones. The key to offset index is rebuilt
+ * by scanning the file on open, stopping at the first incomplete or corrupt record. Appended records are forced to
+ * disk at most {@value #FORCE_INTERVAL_MILLIS}ms after being written, on the next write, so a crash loses at most the
+ * records of the last moments. Files written in an older format are discarded.
+ * <p>
+ * Records older than the TTL are ignored, and the file is compacted into a new file holding only the live records once
+ * superseded or expired records take up more than half of it.
+ * <p>
+ * It can also be used as a writable {@link TitleLookupTier}, keyed as in {@link CachingTitleLookupService}.
+ */
+final class PersistentTitleCache implements Closeable, TitleLookupTier {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PersistentTitleCache.class);
+
+  private static final int MAGIC = 0x47544332; // "GTC2"
+  private static final int FILE_HEADER_BYTES = 4;
+  private static final int RECORD_HEADER_BYTES = 4 + 8 + 2 + 2 + 2 + 2;
+  private static final int MAX_FIELD_BYTES = 0xFFFF;
+  private static final long INITIAL_MAP_BYTES = 1 << 20;
+  private static final long MAX_MAP_BYTES = Integer.MAX_VALUE;
+  private static final long MIN_COMPACTION_BYTES = 1 << 20;
+  private static final long FORCE_INTERVAL_MILLIS = 1000;
+
+  private final Path path;
+  private final long ttlMillis;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // All guarded by lock
+  private FileChannel channel;
+  private MappedByteBuffer map;
+  private int end;
+  private final Map<String, Integer> index = new HashMap<>();
+  private long liveBytes;
+  // Records before this offset are known to be on disk
+  private int forcedEnd;
+  private long lastForceMillis;
+
+  private PersistentTitleCache(Path path, Duration ttl) {
+    this.path = path;
+    this.ttlMillis = ttl.toMillis();
+  }
+
+  /**
+   * Opens the cache file, creating it if needed. An unreadable file is discarded.
+   */
+  static PersistentTitleCache open(Path path, Duration ttl) throws IOException {
+    PersistentTitleCache cache = new PersistentTitleCache(path, ttl);
+    cache.lock.writeLock().lock();
+    try {
+      cache.load();
+      if (cache.needsCompaction()) {
+        cache.compact();
+      }
+    } finally {
+      cache.lock.writeLock().unlock();
+    }
+    LOG.info("Opened title cache {} with {} entries", path, cache.size());
+    return cache;
+  }
+
+  /**
+   * @return the cached value, or null if absent or expired
+   */
+  String get(String key) {
+    ValidatedTitle title = getValidated(key);
+    return title != null ? title.getTitle() : null;
+  }
+
+  /**
+   * @return the cached value with its validators, or null if absent or expired
+   */
+  ValidatedTitle getValidated(String key) {
+    StoredTitle stored = getStored(key);
+    return stored != null ? stored.title : null;
+  }
+
+  /**
+   * @return the cached value with its validators and expiry, or null if absent or expired
+   */
+  StoredTitle getStored(String key) {
+    lock.readLock().lock();
+    try {
+      Integer offset = index.get(key);
+      if (offset == null || isExpired(offset, System.currentTimeMillis())) {
+        return null;
+      }
+      int position = offset + RECORD_HEADER_BYTES + (map.getShort(offset + 12) & 0xFFFF);
+      String value = readField(position, offset + 14);
+      position += map.getShort(offset + 14) & 0xFFFF;
+      String etag = readField(position, offset + 16);
+      position += map.getShort(offset + 16) & 0xFFFF;
+      String lastModified = readField(position, offset + 18);
+      return new StoredTitle(
+          new ValidatedTitle(
+              value, etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified),
+          ttlMillis > 0 ? map.getLong(offset + 4) + ttlMillis : Long.MAX_VALUE);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Appends an entry without validators. Failures are logged, as the cache is only an optimization.
+   */
+  void put(String key, String value) {
+    put(key, new ValidatedTitle(value, null, null));
+  }
+
+  /**
+   * Appends an entry. Failures are logged, as the cache is only an optimization.
+   */
+  void put(String key, ValidatedTitle title) {
+    byte[] k = key.getBytes(StandardCharsets.UTF_8);
+    byte[] v = title.getTitle().getBytes(StandardCharsets.UTF_8);
+    byte[] t = bytes(title.getEtag());
+    byte[] m = bytes(title.getLastModified());
+    if (k.length == 0
+        || k.length > MAX_FIELD_BYTES
+        || v.length > MAX_FIELD_BYTES
+        || t.length > MAX_FIELD_BYTES
+        || m.length > MAX_FIELD_BYTES) {
+      return;
+    }
+    int length = RECORD_HEADER_BYTES + k.length + v.length + t.length + m.length;
+
+    lock.writeLock().lock();
+    try {
+      if (channel == null || !ensureCapacity(length)) {
+        return;
+      }
+      int offset = end;
+      ByteBuffer record = map.duplicate();
+      record.position(offset + 4);
+      record
+          .putLong(System.currentTimeMillis())
+          .putShort((short) k.length)
+          .putShort((short) v.length)
+          .putShort((short) t.length)
+          .putShort((short) m.length)
+          .put(k)
+          .put(v)
+          .put(t)
+          .put(m);
+      map.putInt(offset, crc(offset, length));
+      end += length;
+      indexRecord(key, offset, length);
+
+      if (needsCompaction()) {
+        compact();
+      } else {
+        forceIfDue();
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot write to title cache {}: {}", path, e.toString());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public String findDatasetTitle(String datasetKey) {
+    return get(CachingTitleLookupService.datasetCacheKey(datasetKey));
+  }
+
+  @Override
+  public String findSpeciesName(String usageKey, String checklistKey) {
+    return get(CachingTitleLookupService.speciesCacheKey(usageKey, checklistKey));
+  }
+
+  @Override
+  public void storeDatasetTitle(String datasetKey, String title) {
+    put(CachingTitleLookupService.datasetCacheKey(datasetKey), title);
+  }
+
+  @Override
+  public void storeSpeciesName(String usageKey, String checklistKey, String name) {
+    put(CachingTitleLookupService.speciesCacheKey(usageKey, checklistKey), name);
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Flushes the mapping and trims the file to the written records.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (channel == null) {
+        return;
+      }
+      map.force();
+      channel.truncate(end);
+      channel.close();
+      channel = null;
+      map = null;
+      index.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void load() throws IOException {
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    long size = channel.size();
+    if (size > MAX_MAP_BYTES || (size > 0 && !hasMagic())) {
+      LOG.warn("Discarding unreadable title cache {}", path);
+      channel.truncate(0);
+      size = 0;
+    }
+    remap(Math.max(size, INITIAL_MAP_BYTES));
+    map.putInt(0, MAGIC);
+    end = FILE_HEADER_BYTES;
+
+    long now = System.currentTimeMillis();
+    lastForceMillis = now;
+    while (end + RECORD_HEADER_BYTES <= size) {
+      int length = validRecordLength(end, size);
+      if (length < 0) {
+        break;
+      }
+      String key = readKey(end);
+      if (isExpired(end, now)) {
+        Integer previous = index.remove(key);
+        if (previous != null) {
+          liveBytes -= recordLength(previous);
+        }
+      } else {
+        indexRecord(key, end, length);
+      }
+      end += length;
+    }
+    // A new file's header is not on disk yet
+    forcedEnd = size > 0 ? end : 0;
+  }
+
+  /**
+   * Rewrites the live records into a new file, which then replaces the current one.
+   */
+  private void compact() throws IOException {
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    long now = System.currentTimeMillis();
+    Map<String, Integer> compacted = new HashMap<>();
+    int written = FILE_HEADER_BYTES;
+
+    try (FileChannel out =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(out, ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).flip());
+      for (Map.Entry<String, Integer> entry : index.entrySet()) {
+        int offset = entry.getValue();
+        if (isExpired(offset, now)) {
+          continue;
+        }
+        int length = recordLength(offset);
+        writeFully(out, map.slice(offset, length));
+        compacted.put(entry.getKey(), written);
+        written += length;
+      }
+      out.force(true);
+    }
+
+    channel.close();
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    remap(Math.min(MAX_MAP_BYTES, Math.max(INITIAL_MAP_BYTES, 2L * written)));
+
+    LOG.debug("Compacted title cache {} from {} to {} bytes", path, end, written);
+    end = written;
+    forcedEnd = written;
+    index.clear();
+    index.putAll(compacted);
+    liveBytes = written - FILE_HEADER_BYTES;
+  }
+
+  /**
+   * Makes room for a record of the given length, growing the mapping or compacting the file.
+   *
+   * @return false if the file is full
+   */
+  private boolean ensureCapacity(int length) throws IOException {
+    if ((long) end + length <= map.capacity()) {
+      return true;
+    }
+    long capacity = Math.max(2L * map.capacity(), (long) end + length);
+    if (capacity <= MAX_MAP_BYTES) {
+      remap(capacity);
+      return true;
+    }
+    compact();
+    if ((long) end + length <= map.capacity()) {
+      return true;
+    }
+    LOG.warn("Title cache {} is full, not caching any more entries", path);
+    return false;
+  }
+
+  /**
+   * Forces the records appended since the last force to disk, if it was long enough ago.
+   */
+  private void forceIfDue() {
+    long now = System.currentTimeMillis();
+    if (end > forcedEnd && now - lastForceMillis >= FORCE_INTERVAL_MILLIS) {
+      map.force(forcedEnd, end - forcedEnd);
+      forcedEnd = end;
+      lastForceMillis = now;
+    }
+  }
+
+  private boolean needsCompaction() {
+    long deadBytes = end - FILE_HEADER_BYTES - liveBytes;
+    return end > MIN_COMPACTION_BYTES && deadBytes > liveBytes;
+  }
+
+  private void remap(long capacity) throws IOException {
+    // Mapping read-write beyond the end of the file extends it.
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  private boolean hasMagic() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+    return channel.read(header, 0) == FILE_HEADER_BYTES && header.getInt(0) == MAGIC;
+  }
+
+  private void indexRecord(String key, int offset, int length) {
+    Integer previous = index.put(key, offset);
+    if (previous != null) {
+      liveBytes -= recordLength(previous);
+    }
+    liveBytes += length;
+  }
+
+  /**
+   * @return the length of the record at the offset, or -1 if it is incomplete or corrupt
+   */
+  private int validRecordLength(int offset, long limit) {
+    int keyLength = map.getShort(offset + 12) & 0xFFFF;
+    if (keyLength == 0) {
+      return -1;
+    }
+    int length = recordLength(offset);
+    if (offset + (long) length > limit || map.getInt(offset) != crc(offset, length)) {
+      return -1;
+    }
+    return length;
+  }
+
+  private int recordLength(int offset) {
+    return RECORD_HEADER_BYTES
+        + (map.getShort(offset + 12) & 0xFFFF)
+        + (map.getShort(offset + 14) & 0xFFFF)
+        + (map.getShort(offset + 16) & 0xFFFF)
+        + (map.getShort(offset + 18) & 0xFFFF);
+  }
+
+  /**
+   * Reads a field whose length is at {@code lengthOffset}.
+   */
+  private String readField(int position, int lengthOffset) {
+    byte[] field = new byte[map.getShort(lengthOffset) & 0xFFFF];
+    map.get(position, field);
+    return new String(field, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] bytes(String field) {
+    return field != null ? field.getBytes(StandardCharsets.UTF_8) : new byte[0];
+  }
+
+  private String readKey(int offset) {
+    byte[] key = new byte[map.getShort(offset + 12) & 0xFFFF];
+    map.get(offset + RECORD_HEADER_BYTES, key);
+    return new String(key, StandardCharsets.UTF_8);
+  }
+
+  private boolean isExpired(int offset, long now) {
+    return ttlMillis > 0 && now - map.getLong(offset + 4) > ttlMillis;
+  }
+
+  private int crc(int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(map.slice(offset + 4, length - 4));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * A cached title with the time it expires in the file.
+   */
+  static final class StoredTitle {
+    final ValidatedTitle title;
+    // System.currentTimeMillis() after which the record is ignored
+    final long expiresAtMillis;
+
+    private StoredTitle(ValidatedTitle title, long expiresAtMillis) {
+      this.title = title;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Extracts the polygons of a {@code POLYGON} or {@code MULTIPOLYGON} WKT as values of the
+ * {@link org.gbif.api.model.occurrence.search.OccurrenceSearchParameter#GEOMETRY} search parameter, in a single left
+ * to right pass over the text.
+ * <p>
+ * A polygon without holes becomes the text of its ring, e.g. {@code 30 10,10 20,20 40,30 10}, cut out of the WKT as it
+ * is. A polygon with holes can't be written that way, and becomes a {@code POLYGON} WKT of its own.
+ * Like the regular expression used before, anything around the geometry is ignored and coordinates aren't validated.
+ */
+final class PolygonWktScanner {
+
+  private static final String POLYGON = "POLYGON";
+  private static final String MULTI = "MULTI";
+
+  private final String wkt;
+  private int pos;
+
+  private PolygonWktScanner(String wkt) {
+    this.wkt = wkt;
+  }
+
+  /**
+   * @return one value per polygon, in WKT order
+   * @throws IllegalArgumentException if the text holds no valid polygon
+   */
+  static List<String> polygons(String wkt) {
+    return new PolygonWktScanner(wkt).scan();
+  }
+
+  private List<String> scan() {
+    int keyword = indexOfKeyword();
+    if (keyword < 0) {
+      throw invalid();
+    }
+    pos = keyword + POLYGON.length();
+
+    List<String> polygons = new ArrayList<>(1);
+    if (keyword >= MULTI.length()
+        && wkt.regionMatches(true, keyword - MULTI.length(), MULTI, 0, MULTI.length())) {
+      expect('(');
+      char c;
+      do {
+        polygons.add(polygon());
+      } while ((c = next()) == ',');
+      if (c != ')') {
+        throw invalid();
+      }
+    } else {
+      polygons.add(polygon());
+    }
+    return polygons;
+  }
+
+  /**
+   * Reads {@code ((ring), (hole)...)} from the current position.
+   */
+  private String polygon() {
+    expect('(');
+    // Start and end offsets of each ring, without the parentheses
+    int[] rings = new int[2];
+    int count = 0;
+    char c;
+    do {
+      expect('(');
+      int start = pos;
+      while (pos < wkt.length() && wkt.charAt(pos) != ')') {
+        if (wkt.charAt(pos) == '(') {
+          throw invalid();
+        }
+        pos++;
+      }
+      if (pos == wkt.length() || pos == start) {
+        throw invalid();
+      }
+      if (count == rings.length) {
+        rings = Arrays.copyOf(rings, count * 2);
+      }
+      rings[count++] = start;
+      rings[count++] = pos++;
+    } while ((c = next()) == ',');
+    if (c != ')') {
+      throw invalid();
+    }
+
+    if (count == 2) {
+      return wkt.substring(rings[0], rings[1]);
+    }
+    StringBuilder polygon = new StringBuilder(POLYGON.length() + rings[count - 1] - rings[0] + 4);
+    polygon.append(POLYGON).append('(');
+    for (int i = 0; i < count; i += 2) {
+      polygon.append(i == 0 ? "(" : ",(").append(wkt, rings[i], rings[i + 1]).append(')');
+    }
+    return polygon.append(')').toString();
+  }
+
+  /**
+   * Skips whitespace and consumes the next character, which must be the expected one.
+   */
+  private void expect(char c) {
+    if (next() != c) {
+      throw invalid();
+    }
+  }
+
+  /**
+   * Skips whitespace and consumes the next character.
+   *
+   * @return the character, or 0 at the end of the text
+   */
+  private char next() {
+    while (pos < wkt.length() && isWhitespace(wkt.charAt(pos))) {
+      pos++;
+    }
+    return pos < wkt.length() ? wkt.charAt(pos++) : 0;
+  }
+
+  private int indexOfKeyword() {
+    int last = wkt.length() - POLYGON.length();
+    for (int i = 0; i <= last; i++) {
+      char c = wkt.charAt(i);
+      if ((c == 'P' || c == 'p') && wkt.regionMatches(true, i, POLYGON, 0, POLYGON.length())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Same characters as \s in a regular expression
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private IllegalArgumentException invalid() {
+    return new IllegalArgumentException("No valid polygon WKT: " + wkt);
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import org.gbif.api.model.common.search.SearchParameter;
+import org.gbif.api.model.occurrence.search.OccurrenceSearchParameter;
+import org.gbif.api.model.predicate.Predicate;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Builds query filters and human readable filters for many predicates at once, e.g. for a page listing downloads.
+ * <p>
+ * Predicates are processed in parallel by at most {@code concurrency} threads, the calling thread being one of them.
+ * The other threads come from an executor given by the caller, or from a pool owned by this builder, whose idle
+ * threads stop after a while and which is shut down by {@link #close}. Concurrent batches share the pool, and a batch
+ * never waits for a pool thread to become free: the calling thread processes whatever the pool doesn't get to.
+ * Within a batch each dataset title and species name is looked up once, however many predicates use it.
+ * Results are returned in the order of the predicates, and a predicate that can't be converted gives a failed
+ * {@link Result} without affecting the others.
+ * <p>
+ * This class is thread safe.
+ */
+public class PredicateBatchBuilder implements Closeable {
+
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+  private final QueryParameterFilterBuilder queryParameterFilterBuilder = new QueryParameterFilterBuilder();
+  private final HumanPredicateBuilder humanPredicateBuilder;
+  private final TitleLookupService titleLookupService;
+  private final int concurrency;
+  // Null if single threaded
+  private final Executor executor;
+  // The executor if created by this builder, otherwise null
+  private final ThreadPoolExecutor ownExecutor;
+
+  /**
+   * @param concurrency maximum number of predicates processed at once
+   */
+  public PredicateBatchBuilder(TitleLookupService titleLookupService, int concurrency) {
+    this(titleLookupService, OccurrenceSearchParameter.class, concurrency);
+  }
+
+  /**
+   * @param concurrency maximum number of predicates processed at once
+   */
+  public <SP extends SearchParameter> PredicateBatchBuilder(
+      TitleLookupService titleLookupService, Class<SP> searchParameterClass, int concurrency) {
+    this(titleLookupService, searchParameterClass, concurrency, null);
+  }
+
+  /**
+   * @param concurrency maximum number of predicates processed at once by each batch
+   * @param executor runs the threads helping the calling thread, which is left to the caller to shut down, or null to
+   *     use a pool owned by this builder
+   */
+  public <SP extends SearchParameter> PredicateBatchBuilder(
+      TitleLookupService titleLookupService,
+      Class<SP> searchParameterClass,
+      int concurrency,
+      Executor executor) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be at least 1");
+    }
+    this.titleLookupService = titleLookupService;
+    this.humanPredicateBuilder = new HumanPredicateBuilder(titleLookupService, searchParameterClass);
+    this.concurrency = concurrency;
+    if (executor != null || concurrency == 1) {
+      this.executor = executor;
+      this.ownExecutor = null;
+    } else {
+      this.ownExecutor =
+          new ThreadPoolExecutor(
+              concurrency - 1,
+              concurrency - 1,
+              IDLE_THREAD_TIMEOUT_SECONDS,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              r -> {
+                Thread t = new Thread(r, "predicate-batch");
+                t.setDaemon(true);
+                return t;
+              });
+      this.ownExecutor.allowCoreThreadTimeOut(true);
+      this.executor = ownExecutor;
+    }
+  }
+
+  /**
+   * @return the query string of each predicate, see {@link QueryParameterFilterBuilder#queryFilter(Predicate)}
+   */
+  public List<Result<String>> queryFilters(List<Predicate> predicates) {
+    return run(predicates, () -> queryParameterFilterBuilder::queryFilter);
+  }
+
+  /**
+   * @return the human readable filter of each predicate, see {@link HumanPredicateBuilder#humanFilter(Predicate)}
+   */
+  public List<Result<JsonNode>> humanFilters(List<Predicate> predicates) {
+    BatchTitleLookupService lookups = new BatchTitleLookupService(titleLookupService);
+    return run(predicates, () -> humanPredicateBuilder.withTitleLookupService(lookups)::humanFilter);
+  }
+
+  /**
+   * @return the human readable filter of each predicate as a string, see
+   *     {@link HumanPredicateBuilder#humanFilterString(Predicate)}
+   */
+  public List<Result<String>> humanFilterStrings(List<Predicate> predicates) {
+    BatchTitleLookupService lookups = new BatchTitleLookupService(titleLookupService);
+    return run(
+        predicates, () -> humanPredicateBuilder.withTitleLookupService(lookups)::humanFilterString);
+  }
+
+  /**
+   * Shuts down the pool owned by this builder, if any. Batches already running finish on the calling thread.
+   */
+  @Override
+  public void close() {
+    if (ownExecutor != null) {
+      ownExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Applies a function to every predicate.
+   *
+   * @param workerFunction creates the function used by one worker thread
+   */
+  private <T> List<Result<T>> run(
+      List<Predicate> predicates, Supplier<Function<Predicate, T>> workerFunction) {
+    @SuppressWarnings("unchecked")
+    Result<T>[] results = new Result[predicates.size()];
+    AtomicInteger next = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(results.length);
+    AtomicReference<Error> error = new AtomicReference<>();
+    Runnable worker =
+        () -> {
+          // Workers started once all predicates are taken have nothing left to do.
+          if (next.get() >= results.length) {
+            return;
+          }
+          Function<Predicate, T> function = workerFunction.get();
+          int i;
+          while ((i = next.getAndIncrement()) < results.length) {
+            try {
+              results[i] = Result.of(function.apply(predicates.get(i)));
+            } catch (RuntimeException e) {
+              results[i] = Result.failed(e);
+            } catch (Error e) {
+              error.compareAndSet(null, e);
+              throw e;
+            } finally {
+              done.countDown();
+            }
+          }
+        };
+
+    int threads = Math.min(concurrency, predicates.size());
+    if (threads > 1 && executor != null) {
+      for (int i = 1; i < threads; i++) {
+        try {
+          executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+          // Shut down, the calling thread does the work
+          break;
+        }
+      }
+    }
+    worker.run();
+
+    // Only waits for the predicates other threads are still processing, not for queued workers.
+    boolean interrupted = false;
+    while (true) {
+      try {
+        done.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (error.get() != null) {
+      throw error.get();
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * The outcome of converting one predicate: a value, or the exception thrown.
+   */
+  public static final class Result<T> {
+
+    private final T value;
+    private final RuntimeException error;
+
+    private Result(T value, RuntimeException error) {
+      this.value = value;
+      this.error = error;
+    }
+
+    static <T> Result<T> of(T value) {
+      return new Result<>(value, null);
+    }
+
+    static <T> Result<T> failed(RuntimeException error) {
+      return new Result<>(null, error);
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    /**
+     * @return the converted predicate, or null if the conversion failed
+     */
+    public T getValue() {
+      return value;
+    }
+
+    /**
+     * @return the exception thrown by the conversion, or null if it succeeded
+     */
+    public RuntimeException getError() {
+      return error;
+    }
+  }
+
+  /**
+   * Remembers the lookups of one batch. Concurrent lookups of the same key wait for the first one rather than
+   * repeating it.
+   */
+  private static final class BatchTitleLookupService implements TitleLookupService {
+
+    private final TitleLookupService delegate;
+    private final Map<String, CompletableFuture<String>> titles = new ConcurrentHashMap<>();
+
+    private BatchTitleLookupService(TitleLookupService delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String getDatasetTitle(String datasetKey) {
+      return lookup(
+          CachingTitleLookupService.datasetCacheKey(datasetKey),
+          () -> delegate.getDatasetTitle(datasetKey));
+    }
+
+    @Override
+    public String getSpeciesName(String usageKey) {
+      return lookup(
+          CachingTitleLookupService.speciesCacheKey(usageKey, null),
+          () -> delegate.getSpeciesName(usageKey));
+    }
+
+    @Override
+    public String getSpeciesName(String usageKey, String checklistKey) {
+      return lookup(
+          CachingTitleLookupService.speciesCacheKey(usageKey, checklistKey),
+          () -> delegate.getSpeciesName(usageKey, checklistKey));
+    }
+
+    private String lookup(String key, Supplier<String> loader) {
+      CompletableFuture<String> title = new CompletableFuture<>();
+      CompletableFuture<String> existing = titles.putIfAbsent(key, title);
+      if (existing != null) {
+        return existing.join();
+      }
+      try {
+        title.complete(loader.get());
+      } catch (RuntimeException e) {
+        // Let later lookups of the key try again
+        titles.remove(key, title);
+        title.completeExceptionally(e);
+        throw e;
+      }
+      return title.join();
+    }
+  }
+}
@@ -29,16 +29,15 @@ import org.gbif.api.model.predicate.NotPredicate;
 import org.gbif.api.model.predicate.Predicate;
 import org.gbif.api.model.predicate.WithinPredicate;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,17 +45,19 @@ import org.slf4j.LoggerFactory;
 /**
  * This class builds a query parameter filter usable for search links from a
  * {@link org.gbif.api.model.predicate.Predicate} hierarchy.
- * This class is not thread safe, create a new instance for every use if concurrent calls to {#queryFilter()} is
- * expected.
+ * This class is stateless and thread safe: the traversal state lives in a context object created per call, so a single
+ * instance can be shared by any number of threads without locking.
+ * <p>
+ * Parameters are written in the order they first appear in the predicate, each with all its values, and values are
+ * percent-encoded as {@link java.net.URLEncoder} does for UTF-8.
  */
 public class QueryParameterFilterBuilder {
 
   private static final Logger LOG = LoggerFactory.getLogger(QueryParameterFilterBuilder.class);
   private static final String WILDCARD = "*";
-  private static final Pattern POLYGON_PATTERN =
-      Pattern.compile("POLYGON\\s*\\(\\s*\\((.+)\\)\\s*\\)", Pattern.CASE_INSENSITIVE);
 
-  private Map<SearchParameter, ArrayList<String>> filter;
+  // Visit method per predicate class, looked up reflectively once
+  private static final Map<Class<?>, Method> VISIT_METHODS = new ConcurrentHashMap<>();
 
   private enum State {
     ROOT,
@@ -64,66 +65,85 @@ public class QueryParameterFilterBuilder {
     OR
   }
 
-  private State state;
-  private SearchParameter lastParam;
+  /**
+   * Traversal state of a single {@link #queryFilter} call.
+   */
+  private static final class Context {
+    // Insertion ordered, so the output is deterministic
+    private final Map<SearchParameter, List<String>> filter = new LinkedHashMap<>();
+    private State state = State.ROOT;
+    private SearchParameter lastParam;
+  }
 
-  public synchronized String queryFilter(Predicate p) {
-    StringBuilder b = new StringBuilder();
-    boolean first = true;
+  public String queryFilter(Predicate p) {
+    Context ctx = new Context();
+    visit(p, ctx);
 
-    // build filter map
-    filter = new HashMap<>();
-    state = State.ROOT;
-    lastParam = null;
-    visit(p);
+    // Sized for values needing no encoding, the common case
+    int length = 0;
+    for (Map.Entry<SearchParameter, List<String>> entry : ctx.filter.entrySet()) {
+      for (String val : entry.getValue()) {
+        length += entry.getKey().name().length() + val.length() + 2;
+      }
+    }
+    StringBuilder b = new StringBuilder(length);
+    try {
+      write(ctx, b);
+    } catch (IOException e) {
+      // StringBuilder doesn't throw
+      throw new UncheckedIOException(e);
+    }
+    return b.toString();
+  }
+
+  /**
+   * Writes the query parameter filter for the predicate straight to the output, e.g. a response writer, without
+   * building it as a string first.
+   */
+  public void queryFilter(Predicate p, Appendable out) throws IOException {
+    Context ctx = new Context();
+    visit(p, ctx);
+    write(ctx, out);
+  }
 
-    // transform filter map into query string
-    for (Map.Entry<SearchParameter, ArrayList<String>> entry : filter.entrySet()) {
+  private static void write(Context ctx, Appendable out) throws IOException {
+    boolean first = true;
+    for (Map.Entry<SearchParameter, List<String>> entry : ctx.filter.entrySet()) {
+      String name = entry.getKey().name();
       for (String val : entry.getValue()) {
         if (first) {
           first = false;
         } else {
-          b.append("&");
+          out.append('&');
         }
-        b.append(entry.getKey().name());
-        b.append("=");
-        b.append(encode(val));
+        out.append(name).append('=');
+        QueryStringEncoder.encode(val, out);
       }
     }
-    return b.toString();
   }
 
-  /** Encodes a URL String using StandardCharsets.UTF_8. */
-  private static String encode(String val) {
-    try {
-      return URLEncoder.encode(val, StandardCharsets.UTF_8.name());
-    } catch (UnsupportedEncodingException ex) {
-      throw new RuntimeException(ex);
-    }
-  }
-
-  private void visit(ConjunctionPredicate and) throws IllegalStateException {
+  private void visit(ConjunctionPredicate and, Context ctx) throws IllegalStateException {
     // ranges are allowed underneath root - try first
     try {
-      visitRange(and);
+      visitRange(and, ctx);
       return;
     } catch (IllegalArgumentException e) {
       // must be a root AND
     }
 
-    if (state != State.ROOT) {
+    if (ctx.state != State.ROOT) {
       throw new IllegalStateException("AND must be a root predicate or a valid range");
     }
-    state = State.AND;
+    ctx.state = State.AND;
 
     for (Predicate p : and.getPredicates()) {
-      lastParam = null;
-      visit(p);
+      ctx.lastParam = null;
+      visit(p, ctx);
     }
-    state = State.ROOT;
+    ctx.state = State.ROOT;
   }
 
-  private void visitRange(ConjunctionPredicate and) {
+  private void visitRange(ConjunctionPredicate and, Context ctx) {
     if (and.getPredicates().size() != 2) {
       throw new IllegalArgumentException("no valid range");
     }
@@ -139,7 +159,7 @@ public class QueryParameterFilterBuilder {
     if (lower == null || upper == null || lower.getKey() != upper.getKey()) {
       throw new IllegalArgumentException("no valid range");
     }
-    addQueryParam(lower.getKey(), range(lower.getValue(), upper.getValue()));
+    addQueryParam(lower.getKey(), range(lower.getValue(), upper.getValue()), ctx);
   }
 
   private String range(String from, String to) {
@@ -152,97 +172,94 @@ public class QueryParameterFilterBuilder {
     return from + "," + to;
   }
 
-  private void visit(DisjunctionPredicate or) throws IllegalStateException {
-    State oldState = state;
-    if (state == State.OR) {
+  private void visit(DisjunctionPredicate or, Context ctx) throws IllegalStateException {
+    State oldState = ctx.state;
+    if (ctx.state == State.OR) {
       throw new IllegalStateException("OR within OR filters not supported");
     }
-    state = State.OR;
+    ctx.state = State.OR;
 
     for (Predicate p : or.getPredicates()) {
-      visit(p);
+      visit(p, ctx);
     }
-    state = oldState;
+    ctx.state = oldState;
   }
 
-  private void visit(EqualsPredicate predicate) {
-    addQueryParam(predicate.getKey(), predicate.getValue());
+  private void visit(EqualsPredicate predicate, Context ctx) {
+    addQueryParam(predicate.getKey(), predicate.getValue(), ctx);
   }
 
-  private void visit(IsNotNullPredicate predicate) {
-    addQueryParam(predicate.getParameter(), "*");
+  private void visit(IsNotNullPredicate predicate, Context ctx) {
+    addQueryParam(predicate.getParameter(), "*", ctx);
   }
 
-  private void visit(LikePredicate predicate) {
+  private void visit(LikePredicate predicate, Context ctx) {
     throw new IllegalArgumentException("LIKE operator not supported in web queries");
   }
 
-  private void visit(GreaterThanPredicate predicate) {
+  private void visit(GreaterThanPredicate predicate, Context ctx) {
     throw new IllegalArgumentException(
         "GREATER_THAN_OPERATOR operator not supported in web queries");
   }
 
-  private void visit(GreaterThanOrEqualsPredicate p) {
-    addQueryParam(p.getKey(), range(p.getValue(), null));
+  private void visit(GreaterThanOrEqualsPredicate p, Context ctx) {
+    addQueryParam(p.getKey(), range(p.getValue(), null), ctx);
   }
 
-  private void visit(LessThanPredicate predicate) {
+  private void visit(LessThanPredicate predicate, Context ctx) {
     throw new IllegalArgumentException("LESS_THAN_OPERATOR operator not supported in web queries");
   }
 
-  private void visit(LessThanOrEqualsPredicate p) {
-    addQueryParam(p.getKey(), range(null, p.getValue()));
-  }
-
-  private void visit(WithinPredicate within) {
-    addQueryParam(OccurrenceSearchParameter.GEOMETRY, extractPolygonValues(within.getGeometry()));
+  private void visit(LessThanOrEqualsPredicate p, Context ctx) {
+    addQueryParam(p.getKey(), range(null, p.getValue()), ctx);
   }
 
-  private String extractPolygonValues(String withinValue) {
-    Matcher m = POLYGON_PATTERN.matcher(withinValue);
-    if (m.find()) {
-      return m.group(1);
+  private void visit(WithinPredicate within, Context ctx) {
+    for (String polygon : PolygonWktScanner.polygons(within.getGeometry())) {
+      addQueryParam(OccurrenceSearchParameter.GEOMETRY, polygon, ctx);
     }
-    throw new IllegalArgumentException("No valid polygon WKT: " + withinValue);
   }
 
-  private void visit(InPredicate in) {
+  private void visit(InPredicate in, Context ctx) {
     for (Object val : in.getValues()) {
-      addQueryParam(in.getKey(), (String) val);
+      addQueryParam(in.getKey(), (String) val, ctx);
     }
   }
 
-  private void visit(NotPredicate not) throws IllegalStateException {
+  private void visit(NotPredicate not, Context ctx) throws IllegalStateException {
     throw new IllegalArgumentException("NOT operator not supported in web queries");
   }
 
-  private void addQueryParam(SearchParameter param, String value) {
+  private void addQueryParam(SearchParameter param, String value, Context ctx) {
     // verify that last param if existed was the same
-    if (lastParam != null && param != lastParam) {
+    if (ctx.lastParam != null && param != ctx.lastParam) {
       throw new IllegalArgumentException("Mix of search params not supported");
     }
 
-    if (!filter.containsKey(param)) {
-      filter.put(param, new ArrayList<>());
-    }
-    filter.get(param).add(value);
-    lastParam = param;
+    ctx.filter.computeIfAbsent(param, k -> new ArrayList<>()).add(value);
+    ctx.lastParam = param;
   }
 
-  private void visit(Predicate p) throws IllegalStateException {
-    Method method = null;
-    try {
-      method = getClass().getDeclaredMethod("visit", new Class[] {p.getClass()});
-    } catch (NoSuchMethodException e) {
-      LOG.warn(
-          "Visit method could not be found. That means a Predicate has been passed in that is unknown to this "
-              + "class",
-          e);
-      throw new IllegalArgumentException("Unknown Predicate", e);
+  private void visit(Predicate p, Context ctx) throws IllegalStateException {
+    Method method = VISIT_METHODS.get(p.getClass());
+    if (method == null) {
+      try {
+        // Not getClass(), the cache is shared by all instances, subclasses included
+        method =
+            QueryParameterFilterBuilder.class.getDeclaredMethod(
+                "visit", p.getClass(), Context.class);
+      } catch (NoSuchMethodException e) {
+        LOG.warn(
+            "Visit method could not be found. That means a Predicate has been passed in that is unknown to this "
+                + "class",
+            e);
+        throw new IllegalArgumentException("Unknown Predicate", e);
+      }
+      method.setAccessible(true);
+      VISIT_METHODS.put(p.getClass(), method);
     }
     try {
-      method.setAccessible(true);
-      method.invoke(this, p);
+      method.invoke(this, p, ctx);
     } catch (IllegalAccessException e) {
       LOG.error(
           "This should never happen as we set accessible to true explicitly before. Probably a programming error",
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.IOException;
+
+/**
+ * Percent-encoder for query string values, producing the same output as
+ * {@code URLEncoder.encode(value, StandardCharsets.UTF_8)} without allocating: values made of safe characters only
+ * are appended as they are, and other characters are encoded straight into the output.
+ */
+final class QueryStringEncoder {
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  // Characters URLEncoder leaves unchanged
+  private static final boolean[] SAFE = new boolean[128];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) {
+      SAFE[c] = true;
+    }
+    for (char c = 'A'; c <= 'Z'; c++) {
+      SAFE[c] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      SAFE[c] = true;
+    }
+    SAFE['.'] = true;
+    SAFE['-'] = true;
+    SAFE['*'] = true;
+    SAFE['_'] = true;
+  }
+
+  private QueryStringEncoder() {}
+
+  /**
+   * Appends the encoded value to the output.
+   */
+  static void encode(CharSequence value, Appendable out) throws IOException {
+    int length = value.length();
+    int safe = 0;
+    while (safe < length && isSafe(value.charAt(safe))) {
+      safe++;
+    }
+    if (safe == length) {
+      out.append(value);
+      return;
+    }
+    out.append(value, 0, safe);
+
+    for (int i = safe; i < length; i++) {
+      char c = value.charAt(i);
+      if (isSafe(c)) {
+        out.append(c);
+      } else if (c == ' ') {
+        out.append('+');
+      } else if (c < 0x80) {
+        appendByte(c, out);
+      } else if (c < 0x800) {
+        appendByte(0xC0 | (c >> 6), out);
+        appendByte(0x80 | (c & 0x3F), out);
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        appendByte(0xF0 | (codePoint >> 18), out);
+        appendByte(0x80 | ((codePoint >> 12) & 0x3F), out);
+        appendByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+        appendByte(0x80 | (codePoint & 0x3F), out);
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates can't be encoded in UTF-8, and are replaced by '?' like URLEncoder does.
+        appendByte('?', out);
+      } else {
+        appendByte(0xE0 | (c >> 12), out);
+        appendByte(0x80 | ((c >> 6) & 0x3F), out);
+        appendByte(0x80 | (c & 0x3F), out);
+      }
+    }
+  }
+
+  private static boolean isSafe(char c) {
+    return c < 128 && SAFE[c];
+  }
+
+  private static void appendByte(int b, Appendable out) throws IOException {
+    out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when to hedge a request, that is to send a duplicate of a request that is slow to answer and use whichever
+ * answer comes first.
+ * <p>
+ * A request is hedged once it has been waiting longer than the configured percentile of the latency of recent
+ * requests, so with the 95th percentile about 5% of requests would be hedged. The number of hedges is further capped
+ * to a ratio of all requests, so hedging cannot multiply the load on an API that is slow across the board.
+ */
+final class RequestHedger {
+
+  private static final int WINDOW = 1024;
+  // No hedging until enough latencies are known for the percentile to mean something.
+  private static final int MIN_SAMPLES = 100;
+  private static final int RECOMPUTE_INTERVAL = 64;
+
+  private final double percentile;
+  private final double maxHedgeRate;
+
+  // Ring buffer of the latest latencies, guarded by this
+  private final long[] samples = new long[WINDOW];
+  private long recorded;
+
+  private volatile long hedgeDelayNanos = -1;
+
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder hedgeCount = new LongAdder();
+  private final LongAdder hedgeWinCount = new LongAdder();
+
+  /**
+   * @param percentile latency percentile after which a request is hedged, between 0 and 100 exclusive
+   * @param maxHedgeRate maximum ratio of hedged requests to all requests, between 0 and 1
+   */
+  RequestHedger(double percentile, double maxHedgeRate) {
+    if (percentile <= 0 || percentile >= 100) {
+      throw new IllegalArgumentException("Hedging percentile must be between 0 and 100");
+    }
+    if (maxHedgeRate <= 0 || maxHedgeRate > 1) {
+      throw new IllegalArgumentException("Maximum hedge rate must be between 0 and 1");
+    }
+    this.percentile = percentile;
+    this.maxHedgeRate = maxHedgeRate;
+  }
+
+  /**
+   * Counts a request that may be hedged.
+   */
+  void recordRequest() {
+    requestCount.increment();
+  }
+
+  /**
+   * Records the latency of an answered request.
+   */
+  synchronized void recordLatency(long latencyNanos) {
+    samples[(int) (recorded++ % WINDOW)] = latencyNanos;
+    if (recorded >= MIN_SAMPLES && recorded % RECOMPUTE_INTERVAL == 0) {
+      long[] sorted = Arrays.copyOf(samples, (int) Math.min(recorded, WINDOW));
+      Arrays.sort(sorted);
+      hedgeDelayNanos = sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+    }
+  }
+
+  /**
+   * @return how long to wait for an answer before hedging, or -1 while too few latencies are known
+   */
+  long getHedgeDelayNanos() {
+    return hedgeDelayNanos;
+  }
+
+  /**
+   * @return true if the hedging budget allows another hedge. Racy, so the cap may be exceeded by a few concurrent
+   *     hedges.
+   */
+  boolean canHedge() {
+    return hedgeCount.sum() + 1 <= requestCount.sum() * maxHedgeRate;
+  }
+
+  /**
+   * Counts a hedge sent.
+   */
+  void recordHedge() {
+    hedgeCount.increment();
+  }
+
+  /**
+   * Counts a hedge answering before the request it duplicates.
+   */
+  void recordHedgeWin() {
+    hedgeWinCount.increment();
+  }
+
+  long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  long getHedgeCount() {
+    return hedgeCount.sum();
+  }
+
+  long getHedgeWinCount() {
+    return hedgeWinCount.sum();
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Title lookups answered from a local dump file, without any network access.
+ * <p>
+ * The dump is a tab separated file (optionally gzipped, if the name ends with {@code .gz}) with one entry per line:
+ * <pre>
+ * dataset  &lt;datasetKey&gt;                &lt;title&gt;
+ * species  &lt;usageKey&gt;                  &lt;canonicalName&gt;
+ * species  &lt;checklistKey&gt;/&lt;usageKey&gt;   &lt;canonicalName&gt;
+ * </pre>
+ * Blank lines and lines starting with {@code #} are ignored. Entries are held off-heap in a {@link SortedStringTable},
+ * so the snapshot costs a few bytes more than the names themselves and is immutable and thread safe once loaded.
+ * Keys missing from the dump fall back to the raw key, as {@link TitleLookupServiceImpl} does for failed lookups.
+ * As a read-only {@link TitleLookupTier}, missing keys are null instead, and so are checklist scoped names whose
+ * checklist title is missing, so that a tier able to provide the whole name is asked.
+ */
+public class SnapshotTitleLookupService implements TitleLookupService, TitleLookupTier {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotTitleLookupService.class);
+
+  static final String DATASET = "dataset";
+  static final String SPECIES = "species";
+
+  private final SortedStringTable datasetTitles;
+  private final SortedStringTable speciesNames;
+
+  private SnapshotTitleLookupService(SortedStringTable datasetTitles, SortedStringTable speciesNames) {
+    this.datasetTitles = datasetTitles;
+    this.speciesNames = speciesNames;
+  }
+
+  /**
+   * Loads a snapshot from a dump file.
+   *
+   * @throws IllegalArgumentException if a line is not a valid entry
+   */
+  public static SnapshotTitleLookupService load(Path path) throws IOException {
+    long start = System.currentTimeMillis();
+    long fileSize = Files.size(path);
+    // Most entries are species, so size the species table for the whole file and let the datasets table grow.
+    SortedStringTable.Builder datasets = new SortedStringTable.Builder(1024 * 1024);
+    SortedStringTable.Builder species = new SortedStringTable.Builder(fileSize);
+
+    try (InputStream in = open(path);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+
+        int tab1 = line.indexOf('\t');
+        int tab2 = tab1 < 0 ? -1 : line.indexOf('\t', tab1 + 1);
+        if (tab2 < 0) {
+          throw new IllegalArgumentException("Invalid line " + lineNumber + " in " + path + ": " + line);
+        }
+        String kind = line.substring(0, tab1);
+        String key = line.substring(tab1 + 1, tab2);
+        String value = line.substring(tab2 + 1);
+
+        if (DATASET.equals(kind)) {
+          datasets.add(key, value);
+        } else if (SPECIES.equals(kind)) {
+          species.add(key, value);
+        } else {
+          throw new IllegalArgumentException(
+              "Unknown entry type '" + kind + "' on line " + lineNumber + " in " + path);
+        }
+      }
+    }
+
+    SnapshotTitleLookupService snapshot =
+        new SnapshotTitleLookupService(datasets.build(), species.build());
+    LOG.info(
+        "Loaded {} dataset titles and {} species names ({} bytes off-heap) from {} in {}ms",
+        snapshot.datasetTitles.size(),
+        snapshot.speciesNames.size(),
+        snapshot.datasetTitles.sizeInBytes() + snapshot.speciesNames.sizeInBytes(),
+        path,
+        System.currentTimeMillis() - start);
+    return snapshot;
+  }
+
+  @Override
+  public String getDatasetTitle(String datasetKey) {
+    String title = datasetTitles.get(datasetKey);
+    return title != null ? title : datasetKey;
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey) {
+    String name = speciesNames.get(usageKey);
+    return name != null ? name : usageKey;
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey, String checklistKey) {
+    if (checklistKey == null) {
+      return getSpeciesName(usageKey);
+    }
+    String name = speciesNames.get(checklistKey + "/" + usageKey);
+    return name != null ? name + " [" + getDatasetTitle(checklistKey) + "]" : usageKey;
+  }
+
+  @Override
+  public String findDatasetTitle(String datasetKey) {
+    return datasetTitles.get(datasetKey);
+  }
+
+  @Override
+  public String findSpeciesName(String usageKey, String checklistKey) {
+    if (checklistKey == null) {
+      return speciesNames.get(usageKey);
+    }
+    String name = speciesNames.get(checklistKey + "/" + usageKey);
+    String checklistTitle = name != null ? datasetTitles.get(checklistKey) : null;
+    if (checklistTitle == null) {
+      return null;
+    }
+    return name + " [" + checklistTitle + "]";
+  }
+
+  /**
+   * @return number of dataset titles in the snapshot
+   */
+  public int getDatasetCount() {
+    return datasetTitles.size();
+  }
+
+  /**
+   * @return number of species names in the snapshot
+   */
+  public int getSpeciesCount() {
+    return speciesNames.size();
+  }
+
+  private static InputStream open(Path path) throws IOException {
+    InputStream in = Files.newInputStream(path);
+    if (path.getFileName().toString().endsWith(".gz")) {
+      return new GZIPInputStream(in, 1 << 16);
+    }
+    return in;
+  }
+}
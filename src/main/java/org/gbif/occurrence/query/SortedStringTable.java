@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable string to string map held off-heap, for tens of millions of small entries.
+ * <p>
+ * Entries are stored back to back in a direct buffer as {@code [key length:1][key][value length:2][value]} in UTF-8,
+ * and a second direct buffer holds the entry offsets sorted by key bytes, so a lookup is a binary search without any
+ * per-entry objects on the heap. Keys are limited to 255 bytes, values to 65535 bytes and the whole table to 2GB.
+ * If a key was added more than once, any one of its values may be returned.
+ */
+final class SortedStringTable {
+
+  static final int MAX_KEY_BYTES = 0xFF;
+  static final int MAX_VALUE_BYTES = 0xFFFF;
+
+  private final ByteBuffer data;
+  private final IntBuffer offsets;
+  private final int size;
+
+  private SortedStringTable(ByteBuffer data, IntBuffer offsets, int size) {
+    this.data = data;
+    this.offsets = offsets;
+    this.size = size;
+  }
+
+  /**
+   * @return the value for the key, or null if not present
+   */
+  String get(String key) {
+    byte[] k = key.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int offset = offsets.get(mid);
+      int c = compare(data, offset, k);
+      if (c < 0) {
+        low = mid + 1;
+      } else if (c > 0) {
+        high = mid - 1;
+      } else {
+        return readValue(offset);
+      }
+    }
+    return null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return off-heap bytes used by the entries and the index
+   */
+  long sizeInBytes() {
+    return (long) data.capacity() + (long) size * Integer.BYTES;
+  }
+
+  private String readValue(int offset) {
+    int valueOffset = offset + 1 + (data.get(offset) & 0xFF);
+    int length = data.getShort(valueOffset) & 0xFFFF;
+    byte[] value = new byte[length];
+    data.get(valueOffset + 2, value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compares the key of the entry at {@code offset} with {@code key}, as unsigned bytes.
+   */
+  private static int compare(ByteBuffer data, int offset, byte[] key) {
+    int length = data.get(offset) & 0xFF;
+    int n = Math.min(length, key.length);
+    for (int i = 0; i < n; i++) {
+      int c = (data.get(offset + 1 + i) & 0xFF) - (key[i] & 0xFF);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return length - key.length;
+  }
+
+  /**
+   * Compares the keys of the entries at two offsets, as unsigned bytes.
+   */
+  private static int compare(ByteBuffer data, int offset1, int offset2) {
+    int length1 = data.get(offset1) & 0xFF;
+    int length2 = data.get(offset2) & 0xFF;
+    int n = Math.min(length1, length2);
+    for (int i = 0; i < n; i++) {
+      int c = (data.get(offset1 + 1 + i) & 0xFF) - (data.get(offset2 + 1 + i) & 0xFF);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return length1 - length2;
+  }
+
+  /**
+   * Collects entries in any order, and sorts them once on {@link #build()}.
+   * Not thread safe.
+   */
+  static final class Builder {
+
+    private ByteBuffer data;
+    private int[] offsets = new int[1024];
+    private int size;
+
+    /**
+     * @param expectedBytes initial off-heap capacity, e.g. the size of the file the entries are read from
+     */
+    Builder(long expectedBytes) {
+      data = ByteBuffer.allocateDirect((int) Math.max(1024, Math.min(expectedBytes, Integer.MAX_VALUE - 8)));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key or value is too long
+     */
+    Builder add(String key, String value) {
+      byte[] k = key.getBytes(StandardCharsets.UTF_8);
+      byte[] v = value.getBytes(StandardCharsets.UTF_8);
+      if (k.length > MAX_KEY_BYTES) {
+        throw new IllegalArgumentException("Key longer than " + MAX_KEY_BYTES + " bytes: " + key);
+      }
+      if (v.length > MAX_VALUE_BYTES) {
+        throw new IllegalArgumentException("Value longer than " + MAX_VALUE_BYTES + " bytes for key " + key);
+      }
+
+      ensureCapacity(1 + k.length + 2 + v.length);
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+      }
+      offsets[size++] = data.position();
+      data.put((byte) k.length).put(k).putShort((short) v.length).put(v);
+      return this;
+    }
+
+    SortedStringTable build() {
+      if (!isSorted()) {
+        sort(0, size - 1);
+      }
+
+      // The entries buffer is handed over rather than copied, so loading doesn't need twice its size off-heap. Its
+      // slack is kept, which is little as it is usually sized for the whole file up front.
+      data.flip();
+      IntBuffer sortedOffsets = ByteBuffer.allocateDirect(Math.max(1, size) * Integer.BYTES).asIntBuffer();
+      sortedOffsets.put(offsets, 0, size).flip();
+
+      SortedStringTable table = new SortedStringTable(data, sortedOffsets, size);
+      data = null;
+      offsets = null;
+      return table;
+    }
+
+    private void ensureCapacity(int needed) {
+      if (data.remaining() >= needed) {
+        return;
+      }
+      long capacity = Math.max((long) data.capacity() * 2, (long) data.position() + needed);
+      if (capacity > Integer.MAX_VALUE - 8) {
+        if ((long) data.position() + needed > Integer.MAX_VALUE - 8) {
+          throw new IllegalStateException("Table larger than 2GB");
+        }
+        capacity = Integer.MAX_VALUE - 8;
+      }
+      ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+      data.flip();
+      grown.put(data);
+      data = grown;
+    }
+
+    // Dumps are usually written sorted already, which makes this a single linear pass.
+    private boolean isSorted() {
+      for (int i = 1; i < size; i++) {
+        if (compare(data, offsets[i - 1], offsets[i]) > 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Quicksort of the offsets by key, recursing only into the smaller partition to bound the stack depth.
+     */
+    private void sort(int low, int high) {
+      while (high - low > 16) {
+        int mid = (low + high) >>> 1;
+        // Median of three as pivot
+        if (compare(data, offsets[mid], offsets[low]) < 0) {
+          swap(mid, low);
+        }
+        if (compare(data, offsets[high], offsets[low]) < 0) {
+          swap(high, low);
+        }
+        if (compare(data, offsets[high], offsets[mid]) < 0) {
+          swap(high, mid);
+        }
+        int pivot = offsets[mid];
+
+        int i = low;
+        int j = high;
+        while (i <= j) {
+          while (compare(data, offsets[i], pivot) < 0) {
+            i++;
+          }
+          while (compare(data, offsets[j], pivot) > 0) {
+            j--;
+          }
+          if (i <= j) {
+            swap(i++, j--);
+          }
+        }
+
+        if (j - low < high - i) {
+          sort(low, j);
+          low = i;
+        } else {
+          sort(i, high);
+          high = j;
+        }
+      }
+
+      // Insertion sort for short ranges
+      for (int i = low + 1; i <= high; i++) {
+        int offset = offsets[i];
+        int j = i - 1;
+        while (j >= low && compare(data, offsets[j], offset) > 0) {
+          offsets[j + 1] = offsets[j];
+          j--;
+        }
+        offsets[j + 1] = offset;
+      }
+    }
+
+    private void swap(int i, int j) {
+      int t = offsets[i];
+      offsets[i] = offsets[j];
+      offsets[j] = t;
+    }
+  }
+}
@@ -13,7 +13,19 @@
  */
 package org.gbif.occurrence.query;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,10 +34,325 @@ public final class TitleLookupServiceFactory {
 
   private static final Logger LOG = LoggerFactory.getLogger(TitleLookupServiceFactory.class);
 
+  // Configuration properties read by fromProperties
+  public static final String TIERS = "titleLookup.tiers";
+  public static final String MEMORY_SIZE = "titleLookup.memory.size";
+  public static final String MEMORY_TTL = "titleLookup.memory.ttl";
+  public static final String CACHE_FILE = "titleLookup.cacheFile.path";
+  public static final String CACHE_FILE_TTL = "titleLookup.cacheFile.ttl";
+  public static final String SNAPSHOT_FILE = "titleLookup.snapshot.path";
+  public static final String API_URL = "titleLookup.http.url";
+  public static final String MAX_CONCURRENT_REQUESTS = "titleLookup.http.maxConcurrentRequests";
+  public static final String MAX_REQUESTS_PER_SECOND = "titleLookup.http.maxRequestsPerSecond";
+
+  // One shared, thread safe instance per API root, so warmed up caches are reused by every caller.
+  private static final Map<String, TitleLookupService> INSTANCES = new ConcurrentHashMap<>();
+
   private TitleLookupServiceFactory() {}
 
+  /**
+   * @return the shared lookup service with default options for the API root, created on first use
+   */
   public static TitleLookupService getInstance(String apiRootProperty) {
     String apiRoot = Objects.requireNonNull(apiRootProperty, "API url can't be null");
-    return new TitleLookupServiceImpl(apiRoot);
+    TitleLookupService instance = INSTANCES.get(apiRoot);
+    if (instance != null) {
+      return instance;
+    }
+    // Built outside the map, so other API roots aren't blocked meanwhile. Concurrent first callers may each build
+    // one, and all but the first are closed.
+    TitleLookupService built =
+        builder(apiRoot).throttle(TitleLookupServiceImpl.defaultThrottle(apiRoot)).build();
+    instance = INSTANCES.putIfAbsent(apiRoot, built);
+    if (instance == null) {
+      return built;
+    }
+    closeQuietly(built);
+    return instance;
+  }
+
+  /**
+   * @return a builder for a lookup service with non-default options, which is not shared
+   */
+  public static Builder builder(String apiRootProperty) {
+    return new Builder(Objects.requireNonNull(apiRootProperty, "API url can't be null"));
+  }
+
+  /**
+   * Builds a {@link CompositeTitleLookupService} chain from configuration, so each deployment can pick the cheapest
+   * sources that work for it. {@value #TIERS} lists the tiers in lookup order, separated by commas:
+   * <ul>
+   *   <li>{@code memory}: in-process cache, sized by {@value #MEMORY_SIZE} (default 100000) with a
+   *       {@value #MEMORY_TTL} (ISO-8601 duration, default P1D)</li>
+   *   <li>{@code cacheFile}: persistent cache file at {@value #CACHE_FILE}, with a {@value #CACHE_FILE_TTL}
+   *       (default P7D)</li>
+   *   <li>{@code snapshot}: read-only dump file at {@value #SNAPSHOT_FILE}, see {@link SnapshotTitleLookupService}</li>
+   *   <li>{@code http}: the API at {@value #API_URL}, limited by {@value #MAX_CONCURRENT_REQUESTS} and
+   *       {@value #MAX_REQUESTS_PER_SECOND}</li>
+   * </ul>
+   * For example {@code titleLookup.tiers=memory,snapshot,http}, the default being {@code memory,http}.
+   *
+   * @throws IllegalArgumentException if the configuration is invalid
+   * @throws UncheckedIOException if a file can't be opened
+   */
+  public static CompositeTitleLookupService fromProperties(Properties properties) {
+    return fromProperties(properties, null);
+  }
+
+  /**
+   * Like {@link #fromProperties(Properties)}, but the {@code http} tier sends requests within the limits of the given
+   * throttle, shared with other services, instead of {@value #MAX_CONCURRENT_REQUESTS} and
+   * {@value #MAX_REQUESTS_PER_SECOND}.
+   *
+   * @param throttle limits on the requests to the API, or null to apply the configured ones
+   */
+  public static CompositeTitleLookupService fromProperties(
+      Properties properties, LookupThrottle throttle) {
+    List<TitleLookupTier> tiers = new ArrayList<>();
+    try {
+      for (String tier : properties.getProperty(TIERS, "memory,http").split(",")) {
+        switch (tier.trim().toLowerCase(Locale.ROOT)) {
+          case "memory":
+            tiers.add(
+                new MemoryTitleLookupTier(
+                    Long.parseLong(properties.getProperty(MEMORY_SIZE, "100000")),
+                    Duration.parse(properties.getProperty(MEMORY_TTL, "P1D"))));
+            break;
+          case "cachefile":
+            tiers.add(
+                PersistentTitleCache.open(
+                    Paths.get(required(properties, CACHE_FILE)),
+                    Duration.parse(properties.getProperty(CACHE_FILE_TTL, "P7D"))));
+            break;
+          case "snapshot":
+            tiers.add(SnapshotTitleLookupService.load(Paths.get(required(properties, SNAPSHOT_FILE))));
+            break;
+          case "http":
+            tiers.add(
+                new TitleLookupServiceImpl(
+                    required(properties, API_URL),
+                    TitleLookupServiceImpl.DEFAULT_CONNECT_TIMEOUT,
+                    TitleLookupServiceImpl.DEFAULT_REQUEST_TIMEOUT,
+                    throttle != null ? throttle : throttle(properties)));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown title lookup tier '" + tier + "'");
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // Release the files of the tiers already opened.
+      for (TitleLookupTier opened : tiers) {
+        if (opened instanceof Closeable) {
+          try {
+            ((Closeable) opened).close();
+          } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+          }
+        }
+      }
+      if (e instanceof IOException) {
+        throw new UncheckedIOException("Cannot open title lookup tier", (IOException) e);
+      }
+      throw (RuntimeException) e;
+    }
+    LOG.info("Title lookups from {}", properties.getProperty(TIERS, "memory,http"));
+    return new CompositeTitleLookupService(tiers);
+  }
+
+  private static LookupThrottle throttle(Properties properties) {
+    return new LookupThrottle(
+        Double.parseDouble(
+            properties.getProperty(
+                MAX_REQUESTS_PER_SECOND,
+                String.valueOf(TitleLookupServiceImpl.DEFAULT_MAX_REQUESTS_PER_SECOND))),
+        Integer.parseInt(
+            properties.getProperty(
+                MAX_CONCURRENT_REQUESTS,
+                String.valueOf(TitleLookupServiceImpl.DEFAULT_MAX_CONCURRENT_REQUESTS))));
+  }
+
+  private static String required(Properties properties, String name) {
+    String value = properties.getProperty(name);
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("Missing title lookup configuration " + name);
+    }
+    return value;
+  }
+
+  private static void closeQuietly(TitleLookupService service) {
+    if (service instanceof Closeable) {
+      try {
+        ((Closeable) service).close();
+      } catch (IOException e) {
+        LOG.warn("Cannot close unused title lookup service", e);
+      }
+    }
+  }
+
+  /**
+   * Builds an HTTP lookup service, wrapped in a {@link CachingTitleLookupService} unless the cache size is zero.
+   */
+  public static final class Builder {
+
+    private final String apiRoot;
+    private long cacheSize = 100_000;
+    private Duration cacheTtl = Duration.ofDays(1);
+    private Path cacheFile;
+    private Duration connectTimeout = TitleLookupServiceImpl.DEFAULT_CONNECT_TIMEOUT;
+    private Duration requestTimeout = TitleLookupServiceImpl.DEFAULT_REQUEST_TIMEOUT;
+    private int maxConcurrentRequests = TitleLookupServiceImpl.DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private double maxRequestsPerSecond = TitleLookupServiceImpl.DEFAULT_MAX_REQUESTS_PER_SECOND;
+    private double hedgePercentile;
+    private double maxHedgeRate;
+    private LookupThrottle throttle;
+    private Path hotKeysFile;
+    private int hotKeysLimit = 10_000;
+    private double warmUpRate = 20;
+
+    private Builder(String apiRoot) {
+      this.apiRoot = apiRoot;
+    }
+
+    /**
+     * Maximum number of titles cached in memory, 0 to disable caching.
+     */
+    public Builder cacheSize(long cacheSize) {
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    /**
+     * Time after which cached titles are looked up again.
+     */
+    public Builder cacheTtl(Duration cacheTtl) {
+      this.cacheTtl = Objects.requireNonNull(cacheTtl);
+      return this;
+    }
+
+    /**
+     * Local file persisting cached titles across restarts, none by default.
+     */
+    public Builder cacheFile(Path cacheFile) {
+      this.cacheFile = cacheFile;
+      return this;
+    }
+
+    public Builder connectTimeout(Duration connectTimeout) {
+      this.connectTimeout = Objects.requireNonNull(connectTimeout);
+      return this;
+    }
+
+    public Builder requestTimeout(Duration requestTimeout) {
+      this.requestTimeout = Objects.requireNonNull(requestTimeout);
+      return this;
+    }
+
+    /**
+     * Maximum number of API requests in flight at once. The actual limit adapts to the API latency and errors below
+     * this bound.
+     */
+    public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+      if (maxConcurrentRequests < 1) {
+        throw new IllegalArgumentException("At least one concurrent request is needed");
+      }
+      this.maxConcurrentRequests = maxConcurrentRequests;
+      return this;
+    }
+
+    /**
+     * Maximum sustained rate of API requests.
+     */
+    public Builder maxRequestsPerSecond(double maxRequestsPerSecond) {
+      if (maxRequestsPerSecond <= 0) {
+        throw new IllegalArgumentException("The request rate must be positive");
+      }
+      this.maxRequestsPerSecond = maxRequestsPerSecond;
+      return this;
+    }
+
+    /**
+     * Sends requests within the limits of the given throttle, shared with other services for the same API, instead of
+     * {@link #maxConcurrentRequests} and {@link #maxRequestsPerSecond}. Each built service has its own throttle by
+     * default.
+     */
+    public Builder throttle(LookupThrottle throttle) {
+      this.throttle = throttle;
+      return this;
+    }
+
+    /**
+     * Sends a duplicate of requests that haven't answered within the given percentile of recent latencies, and uses
+     * whichever answers first. Disabled by default.
+     *
+     * @param percentile latency percentile after which a request is hedged, e.g. 95
+     * @param maxHedgeRate maximum ratio of hedged requests to all requests, e.g. 0.05
+     */
+    public Builder hedging(double percentile, double maxHedgeRate) {
+      if (percentile <= 0 || percentile >= 100 || maxHedgeRate <= 0 || maxHedgeRate > 1) {
+        throw new IllegalArgumentException("Invalid hedging percentile or rate");
+      }
+      this.hedgePercentile = percentile;
+      this.maxHedgeRate = maxHedgeRate;
+      return this;
+    }
+
+    /**
+     * File of the most used keys. If it exists, the keys are prefetched in the background once the service is built,
+     * and the service rewrites it when closed. Needs caching to be enabled.
+     */
+    public Builder hotKeysFile(Path hotKeysFile) {
+      this.hotKeysFile = hotKeysFile;
+      return this;
+    }
+
+    /**
+     * Maximum number of keys written to the hot keys file.
+     */
+    public Builder hotKeysLimit(int hotKeysLimit) {
+      this.hotKeysLimit = hotKeysLimit;
+      return this;
+    }
+
+    /**
+     * Maximum number of prefetch lookups per second while warming up.
+     */
+    public Builder warmUpRate(double warmUpRate) {
+      this.warmUpRate = warmUpRate;
+      return this;
+    }
+
+    public TitleLookupService build() {
+      TitleLookupService http =
+          new TitleLookupServiceImpl(
+              apiRoot,
+              connectTimeout,
+              requestTimeout,
+              throttle != null
+                  ? throttle
+                  : new LookupThrottle(maxRequestsPerSecond, maxConcurrentRequests),
+              hedgePercentile,
+              maxHedgeRate);
+      if (cacheSize <= 0) {
+        return http;
+      }
+
+      CachingTitleLookupService cache = null;
+      if (cacheFile != null) {
+        try {
+          cache = new CachingTitleLookupService(http, cacheSize, cacheTtl, cacheFile);
+        } catch (IOException e) {
+          LOG.warn("Cannot open title cache file {}, caching in memory only: {}", cacheFile, e.toString());
+        }
+      }
+      if (cache == null) {
+        cache = new CachingTitleLookupService(http, cacheSize, cacheTtl);
+      }
+
+      if (hotKeysFile != null) {
+        cache.saveHotKeysOnClose(hotKeysFile, hotKeysLimit);
+        new TitleLookupWarmer(cache, warmUpRate, maxConcurrentRequests).warmUp(hotKeysFile);
+      }
+      return cache;
+    }
   }
 }
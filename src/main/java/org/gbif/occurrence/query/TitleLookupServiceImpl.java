@@ -16,8 +16,24 @@ package org.gbif.occurrence.query;
 import org.gbif.api.model.registry.Dataset;
 import org.gbif.api.ws.mixin.Mixins;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,72 +43,371 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Utility ws-client class to get dataset and species titles used in downloads.
+ * Failed and not found lookups are remembered for a short time, and repeated failures open a circuit breaker so that
+ * lookups fall back to the raw key immediately while the API is unavailable. Only I/O errors, 5xx, 408 and 429 responses
+ * count as failures of the API, other 4xx responses being caused by the key looked up.
+ * Requests are throttled client side by a {@link LookupThrottle}, so large renders don't get the API to throttle us.
+ * Optionally, requests slow to answer are hedged with a duplicate request (see {@link RequestHedger}).
+ * Titles are returned with the ETag and Last-Modified validators of the response, and can be revalidated with
+ * conditional requests (see {@link ConditionalTitleLookupService}).
+ * As the last {@link TitleLookupTier} of a chain, failed lookups are null instead of the raw key.
+ * Instances are thread safe, and should be shared (see {@link TitleLookupServiceFactory}) rather than created per use.
  */
-public class TitleLookupServiceImpl implements TitleLookupService {
+public class TitleLookupServiceImpl implements ConditionalTitleLookupService, TitleLookupTier {
 
   private static final Logger LOG = LoggerFactory.getLogger(TitleLookupServiceImpl.class);
 
+  static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+  static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+  static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 50;
+
+  // Throttles of the instances created with default limits, per API root
+  private static final Map<String, LookupThrottle> DEFAULT_THROTTLES = new ConcurrentHashMap<>();
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  static {
+    MAPPER.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    MAPPER.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    MAPPER.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    Mixins.getPredefinedMixins().forEach(MAPPER::addMixIn);
+  }
+
+  private static final Duration NEGATIVE_CACHE_TTL = Duration.ofSeconds(30);
+  private static final int NEGATIVE_CACHE_MAX_SIZE = 10_000;
+  private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+  private static final Duration CIRCUIT_PROBE_INTERVAL = Duration.ofSeconds(10);
+  private static final int CHECKLIST_SUFFIX_CACHE_MAX_SIZE = 1_000;
+  private static final Duration CHECKLIST_SUFFIX_CACHE_TTL = Duration.ofHours(1);
+
   private final String apiRoot;
-  final ObjectMapper objectMapper;
+  private final HttpClient httpClient;
+  private final Duration requestTimeout;
+  private final LookupThrottle throttle;
+  // Null if hedging is disabled
+  private final RequestHedger hedger;
+
+  // Checklist titles are few and rarely change, but a single IN predicate can scope thousands of taxon keys to the
+  // same checklist, so the formatted " [title]" suffix is resolved once and kept for a while.
+  private final Cache<String, String> checklistSuffixes =
+      CacheBuilder.newBuilder()
+          .maximumSize(CHECKLIST_SUFFIX_CACHE_MAX_SIZE)
+          .expireAfterWrite(CHECKLIST_SUFFIX_CACHE_TTL)
+          .build();
+
+  // Request URL to the System.nanoTime() until which it is not retried.
+  private final Map<String, Long> negativeCache = new ConcurrentHashMap<>();
+  private final LookupCircuitBreaker circuitBreaker;
+
+  private final LongAdder failureCount = new LongAdder();
+  private final LongAdder notFoundCount = new LongAdder();
+  private final LongAdder negativeCacheHitCount = new LongAdder();
+  private final LongAdder throttledCount = new LongAdder();
+  private final LongAdder notModifiedCount = new LongAdder();
 
   /**
-   * Creates a lookup instance from an existing jersey client resource pointing to the root of the API.
+   * Creates a lookup instance with default timeouts and limits for the API at the given root URL.
+   * The request limits are shared by all such instances for the same API root.
    */
   public TitleLookupServiceImpl(String apiRoot) {
+    this(apiRoot, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, defaultThrottle(apiRoot));
+  }
+
+  /**
+   * Creates a lookup instance for the API at the given root URL.
+   *
+   * @param connectTimeout timeout for establishing a connection
+   * @param requestTimeout timeout for a whole request, from sending it until the response is received
+   * @param maxConcurrentRequests maximum number of requests in flight at once, further lookups wait for a free slot
+   */
+  public TitleLookupServiceImpl(
+      String apiRoot, Duration connectTimeout, Duration requestTimeout, int maxConcurrentRequests) {
+    this(
+        apiRoot,
+        connectTimeout,
+        requestTimeout,
+        maxConcurrentRequests,
+        DEFAULT_MAX_REQUESTS_PER_SECOND);
+  }
+
+  /**
+   * Creates a lookup instance for the API at the given root URL.
+   * The request limits apply to this instance only.
+   *
+   * @param connectTimeout timeout for establishing a connection
+   * @param requestTimeout timeout for a whole request, from sending it until the response is received
+   * @param maxConcurrentRequests upper bound of the adaptive limit on requests in flight at once, further lookups wait
+   *     for a free slot
+   * @param maxRequestsPerSecond maximum sustained rate of requests
+   */
+  public TitleLookupServiceImpl(
+      String apiRoot,
+      Duration connectTimeout,
+      Duration requestTimeout,
+      int maxConcurrentRequests,
+      double maxRequestsPerSecond) {
+    this(
+        apiRoot,
+        connectTimeout,
+        requestTimeout,
+        new LookupThrottle(maxRequestsPerSecond, maxConcurrentRequests),
+        0,
+        0);
+  }
+
+  /**
+   * Creates a lookup instance for the API at the given root URL, sending requests within the limits of a throttle
+   * which may be shared with other instances.
+   *
+   * @param connectTimeout timeout for establishing a connection
+   * @param requestTimeout timeout for a whole request, from sending it until the response is received
+   */
+  public TitleLookupServiceImpl(
+      String apiRoot, Duration connectTimeout, Duration requestTimeout, LookupThrottle throttle) {
+    this(apiRoot, connectTimeout, requestTimeout, throttle, 0, 0);
+  }
+
+  /**
+   * Creates a lookup instance for the API at the given root URL, optionally hedging slow requests.
+   *
+   * @param throttle limits on the requests sent by this instance, possibly shared with others
+   * @param hedgePercentile latency percentile of recent requests after which a request is hedged, 0 to disable
+   *     hedging
+   * @param maxHedgeRate maximum ratio of hedged requests to all requests
+   */
+  TitleLookupServiceImpl(
+      String apiRoot,
+      Duration connectTimeout,
+      Duration requestTimeout,
+      LookupThrottle throttle,
+      double hedgePercentile,
+      double maxHedgeRate) {
+    this(
+        apiRoot,
+        HttpClient.newBuilder()
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build(),
+        requestTimeout,
+        throttle,
+        hedgePercentile,
+        maxHedgeRate);
+  }
+
+  TitleLookupServiceImpl(
+      String apiRoot,
+      HttpClient httpClient,
+      Duration requestTimeout,
+      LookupThrottle throttle,
+      double hedgePercentile,
+      double maxHedgeRate) {
     this.apiRoot = apiRoot;
-    objectMapper = new ObjectMapper();
-    objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-    objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-    objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-    Mixins.getPredefinedMixins().forEach(objectMapper::addMixIn);
+    this.requestTimeout = requestTimeout;
+    this.throttle = throttle;
+    this.hedger = hedgePercentile > 0 ? new RequestHedger(hedgePercentile, maxHedgeRate) : null;
+    this.httpClient = httpClient;
+    circuitBreaker =
+        new LookupCircuitBreaker(
+            apiRoot, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_PROBE_INTERVAL, this::probe);
+  }
+
+  /**
+   * @return the throttle shared by instances with default limits for the API root
+   */
+  static LookupThrottle defaultThrottle(String apiRoot) {
+    return DEFAULT_THROTTLES.computeIfAbsent(
+        apiRoot,
+        root -> new LookupThrottle(DEFAULT_MAX_REQUESTS_PER_SECOND, DEFAULT_MAX_CONCURRENT_REQUESTS));
   }
 
   @Override
   public String getDatasetTitle(String datasetKey) {
-    String apiUrl = apiRoot + "dataset/" + datasetKey;
+    ValidatedTitle title = getDatasetTitle(datasetKey, null);
+    return title != null ? title.getTitle() : datasetKey;
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey) {
+    return getSpeciesName(usageKey, null);
+  }
+
+  @Override
+  public String getSpeciesName(String usageKey, String checklistKey) {
+    ValidatedTitle name = getSpeciesName(usageKey, checklistKey, null);
+    return name != null ? name.getTitle() : usageKey;
+  }
+
+  @Override
+  public String findDatasetTitle(String datasetKey) {
+    ValidatedTitle title = getDatasetTitle(datasetKey, null);
+    return title != null ? title.getTitle() : null;
+  }
+
+  @Override
+  public String findSpeciesName(String usageKey, String checklistKey) {
+    ValidatedTitle name = getSpeciesName(usageKey, checklistKey, null);
+    return name != null ? name.getTitle() : null;
+  }
+
+  @Override
+  public ValidatedTitle getDatasetTitle(String datasetKey, ValidatedTitle previous) {
     try {
-      URL url = new URL(apiUrl);
-      Dataset dataset = objectMapper.readValue(url, Dataset.class);
-      return dataset.getTitle();
+      Document document = read(apiRoot + "dataset/" + datasetKey, previous);
+      if (document.json == null) {
+        return previous;
+      }
+      Dataset dataset = MAPPER.treeToValue(document.json, Dataset.class);
+      return document.validated(dataset.getTitle());
     } catch (Exception e) {
-      LOG.error("Cannot lookup dataset title {}", datasetKey, e);
+      logFailure("Cannot lookup dataset title", datasetKey, e);
     }
-    return datasetKey;
+    return null;
   }
 
   @Override
-  public String getSpeciesName(String usageKey) {
+  public ValidatedTitle getSpeciesName(
+      String usageKey, String checklistKey, ValidatedTitle previous) {
     try {
-      String apiUrl = getV2Url() + "species/match?usageKey=" + usageKey;
-      return getCanonical(apiUrl);
+      String apiUrl =
+          checklistKey == null
+              ? getV2Url() + "species/match?usageKey=" + usageKey
+              : getV2Url()
+                  + "species/match?checklistKey="
+                  + checklistKey
+                  + "&usageKey="
+                  + usageKey;
+      Document document = read(apiUrl, previous);
+      if (document.json == null) {
+        return previous;
+      }
+      String name = getCanonical(document.json);
+      if (checklistKey != null) {
+        name = name + getChecklistSuffix(checklistKey);
+      }
+      return document.validated(name);
     } catch (Exception e) {
-      LOG.error("Cannot lookup species title {}", usageKey, e);
+      logFailure("Cannot lookup species title", usageKey, e);
     }
-    return usageKey;
+    return null;
   }
 
-  @Override
-  public String getSpeciesName(String usageKey, String checklistKey) {
-    if (checklistKey == null) {
-      return getSpeciesName(usageKey);
+  /**
+   * @return number of lookups that failed for reasons other than the key not being found
+   */
+  public long getFailureCount() {
+    return failureCount.sum();
+  }
+
+  /**
+   * @return number of lookups answered with a 404 by the API
+   */
+  public long getNotFoundCount() {
+    return notFoundCount.sum();
+  }
+
+  /**
+   * @return number of lookups skipped because the same request failed recently
+   */
+  public long getNegativeCacheHitCount() {
+    return negativeCacheHitCount.sum();
+  }
+
+  /**
+   * @return number of lookups skipped because the circuit breaker was open
+   */
+  public long getShortCircuitCount() {
+    return circuitBreaker.getShortCircuitCount();
+  }
+
+  /**
+   * @return number of requests rejected by the API as too many (HTTP 429 or 503)
+   */
+  public long getThrottledCount() {
+    return throttledCount.sum();
+  }
+
+  /**
+   * @return current limit on requests in flight to the API host, adapted to its latency and errors
+   */
+  public int getConcurrencyLimit() {
+    return throttle.getConcurrencyLimit();
+  }
+
+  LookupThrottle getThrottle() {
+    return throttle;
+  }
+
+  /**
+   * @return number of conditional requests answered 304, confirming a previous title
+   */
+  public long getNotModifiedCount() {
+    return notModifiedCount.sum();
+  }
+
+  /**
+   * @return number of duplicate requests sent for slow requests
+   */
+  public long getHedgeCount() {
+    return hedger != null ? hedger.getHedgeCount() : 0;
+  }
+
+  /**
+   * @return number of duplicate requests answering before the request they duplicate
+   */
+  public long getHedgeWinCount() {
+    return hedger != null ? hedger.getHedgeWinCount() : 0;
+  }
+
+  /**
+   * @return ratio of hedgeable requests that were hedged
+   */
+  public double getHedgeRate() {
+    long requests = hedger != null ? hedger.getRequestCount() : 0;
+    return requests > 0 ? (double) hedger.getHedgeCount() / requests : 0;
+  }
+
+  /**
+   * @return true while lookups fail fast because the API is considered unavailable
+   */
+  public boolean isCircuitOpen() {
+    return circuitBreaker.isOpen();
+  }
+
+  /**
+   * Gets the " [checklist title]" suffix for checklist scoped names, fetching the title only when a checklist is first
+   * seen or its cached title has expired. Failed lookups are not memoized, the checklist key is used instead as
+   * {@link #getDatasetTitle} does.
+   * <p>
+   * The title is fetched without holding any lock, so concurrent first lookups of a checklist may each fetch it.
+   */
+  private String getChecklistSuffix(String checklistKey) {
+    String suffix = checklistSuffixes.getIfPresent(checklistKey);
+    if (suffix != null) {
+      return suffix;
     }
     try {
-      String apiUrl =
-          getV2Url() + "species/match?checklistKey=" + checklistKey + "&usageKey=" + usageKey;
-      String checklistName = getDatasetTitle(checklistKey);
-      return getCanonical(apiUrl) + " [" + checklistName + "]";
+      suffix = " [" + readDatasetTitle(checklistKey) + "]";
+      checklistSuffixes.put(checklistKey, suffix);
+      return suffix;
     } catch (Exception e) {
-      LOG.error("Cannot lookup species title {}", usageKey, e);
+      logFailure("Cannot lookup dataset title", checklistKey, e);
     }
-    return usageKey;
+    return " [" + checklistKey + "]";
   }
 
-  private String getCanonical(String apiUrl) throws IOException {
-    URL url = new URL(apiUrl);
-    JsonNode rootNode = objectMapper.readTree(url);
+  private String readDatasetTitle(String datasetKey) throws IOException {
+    JsonNode rootNode = readTree(apiRoot + "dataset/" + datasetKey);
+    Dataset dataset = MAPPER.treeToValue(rootNode, Dataset.class);
+    return dataset.getTitle();
+  }
+
+  private static String getCanonical(JsonNode rootNode) {
     JsonNode usageNode = rootNode.path("usage");
     if (usageNode != null) {
       if (usageNode.path("canonicalName") != null) {
@@ -102,6 +417,266 @@ public class TitleLookupServiceImpl implements TitleLookupService {
     return null;
   }
 
+  private JsonNode readTree(String apiUrl) throws IOException {
+    return read(apiUrl, null).json;
+  }
+
+  /**
+   * Reads a JSON document from the API, unless the same request failed recently or the circuit breaker is open.
+   *
+   * @param previous title whose validators make the request conditional, may be null
+   */
+  private Document read(String apiUrl, ValidatedTitle previous) throws IOException {
+    Long retryAfter = negativeCache.get(apiUrl);
+    if (retryAfter != null) {
+      if (retryAfter - System.nanoTime() > 0) {
+        negativeCacheHitCount.increment();
+        throw new LookupSkippedException("Recently failed, not retried yet: " + apiUrl);
+      }
+      negativeCache.remove(apiUrl, retryAfter);
+    }
+
+    if (!circuitBreaker.allowRequest()) {
+      throw new LookupSkippedException("API unavailable, not requested: " + apiUrl);
+    }
+
+    try {
+      Document document = get(apiUrl, previous);
+      circuitBreaker.recordSuccess();
+      return document;
+    } catch (FileNotFoundException e) {
+      // A 404 means the API itself is fine.
+      notFoundCount.increment();
+      circuitBreaker.recordSuccess();
+      rememberFailure(apiUrl);
+      throw e;
+    } catch (MalformedURLException | ClientErrorException e) {
+      // Nothing was sent or the request was rejected, so the API can't be blamed, but the key is just as invalid next
+      // time.
+      failureCount.increment();
+      circuitBreaker.recordSuccess();
+      rememberFailure(apiUrl);
+      throw e;
+    } catch (IOException e) {
+      failureCount.increment();
+      circuitBreaker.recordFailure();
+      rememberFailure(apiUrl);
+      throw e;
+    }
+  }
+
+  private void rememberFailure(String apiUrl) {
+    if (negativeCache.size() >= NEGATIVE_CACHE_MAX_SIZE) {
+      long now = System.nanoTime();
+      negativeCache.values().removeIf(retryAfter -> retryAfter - now <= 0);
+      if (negativeCache.size() >= NEGATIVE_CACHE_MAX_SIZE) {
+        negativeCache.clear();
+      }
+    }
+    negativeCache.put(apiUrl, System.nanoTime() + NEGATIVE_CACHE_TTL.toNanos());
+  }
+
+  /**
+   * Sends a GET request, waiting for the throttle to allow it. The request is conditional if validators of a previous
+   * response are given.
+   *
+   * @param previous title whose validators make the request conditional, may be null
+   * @return the document, without JSON if the API responds 304
+   * @throws FileNotFoundException if the API responds 404
+   * @throws ClientErrorException if the API responds with another client error, see {@link #isClientError}
+   * @throws MalformedURLException if the URL is invalid, e.g. because of the key in it
+   */
+  private Document get(String apiUrl, ValidatedTitle previous) throws IOException {
+    URI uri;
+    try {
+      uri = URI.create(apiUrl);
+    } catch (IllegalArgumentException e) {
+      MalformedURLException malformed = new MalformedURLException("Invalid URL " + apiUrl);
+      malformed.initCause(e);
+      throw malformed;
+    }
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder(uri)
+            .timeout(requestTimeout)
+            .header("Accept", "application/json")
+            .GET();
+    if (previous != null && previous.getEtag() != null) {
+      builder.header("If-None-Match", previous.getEtag());
+    }
+    if (previous != null && previous.getLastModified() != null) {
+      builder.header("If-Modified-Since", previous.getLastModified());
+    }
+    HttpRequest request = builder.build();
+
+    HttpResponse<byte[]> response;
+    try {
+      throttle.acquire();
+      response = hedger != null ? sendHedged(request) : await(send(request));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while requesting " + apiUrl);
+    }
+
+    int status = response.statusCode();
+    String etag = response.headers().firstValue("ETag").orElse(null);
+    String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+    if (status == 304 && previous != null) {
+      notModifiedCount.increment();
+      return new Document(
+          null,
+          etag != null ? etag : previous.getEtag(),
+          lastModified != null ? lastModified : previous.getLastModified());
+    }
+    if (status == 404) {
+      throw new FileNotFoundException(apiUrl);
+    }
+    if (isClientError(status)) {
+      throw new ClientErrorException("HTTP " + status + " from " + apiUrl);
+    }
+    if (status != 200) {
+      if (status == 429 || status == 503) {
+        throttledCount.increment();
+      }
+      throw new IOException("HTTP " + status + " from " + apiUrl);
+    }
+    return new Document(MAPPER.readTree(response.body()), etag, lastModified);
+  }
+
+  /**
+   * Sends a request once the primary request has been waiting longer than the hedging delay, and takes the first
+   * answer. A hedge is only sent if the hedging budget and the throttle allow it without waiting. The request answering
+   * last is cancelled, which frees its throttle slot right away.
+   */
+  private HttpResponse<byte[]> sendHedged(HttpRequest request)
+      throws IOException, InterruptedException {
+    hedger.recordRequest();
+    CompletableFuture<HttpResponse<byte[]>> primary = send(request);
+
+    long hedgeDelay = hedger.getHedgeDelayNanos();
+    if (hedgeDelay < 0) {
+      return await(primary);
+    }
+    try {
+      return primary.get(hedgeDelay, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      if (!hedger.canHedge() || !throttle.tryAcquire()) {
+        return await(primary);
+      }
+      hedger.recordHedge();
+    } catch (ExecutionException e) {
+      throw asIOException(e);
+    }
+
+    CompletableFuture<HttpResponse<byte[]>> hedge = send(request);
+    CompletableFuture<HttpResponse<byte[]>> first = new CompletableFuture<>();
+    AtomicInteger failed = new AtomicInteger();
+    primary.whenComplete(
+        (response, e) -> {
+          if (e == null) {
+            if (first.complete(response)) {
+              hedge.cancel(true);
+            }
+          } else if (failed.incrementAndGet() == 2) {
+            first.completeExceptionally(e);
+          }
+        });
+    hedge.whenComplete(
+        (response, e) -> {
+          if (e == null) {
+            if (first.complete(response)) {
+              hedger.recordHedgeWin();
+              primary.cancel(true);
+            }
+          } else if (failed.incrementAndGet() == 2) {
+            first.completeExceptionally(e);
+          }
+        });
+    try {
+      return await(first);
+    } catch (InterruptedException e) {
+      primary.cancel(true);
+      hedge.cancel(true);
+      throw e;
+    }
+  }
+
+  /**
+   * Sends a request the throttle has already allowed, feeding its outcome and latency back to the throttle and the
+   * hedger. Anything but a 200, 304 or client error response lowers the concurrency limit.
+   *
+   * @return the exchange itself, so that cancelling it aborts the request and releases its throttle slot
+   */
+  private CompletableFuture<HttpResponse<byte[]>> send(HttpRequest request) {
+    long start = System.nanoTime();
+    CompletableFuture<HttpResponse<byte[]>> exchange =
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    exchange.whenComplete(
+        (response, e) -> {
+          if (e instanceof CancellationException) {
+            throttle.cancel();
+            return;
+          }
+          long latency = System.nanoTime() - start;
+          boolean answered =
+              response != null
+                  && (response.statusCode() == 200
+                      || response.statusCode() == 304
+                      || isClientError(response.statusCode()));
+          throttle.release(latency, !answered);
+          if (hedger != null && response != null) {
+            hedger.recordLatency(latency);
+          }
+        });
+    return exchange;
+  }
+
+  private static HttpResponse<byte[]> await(CompletableFuture<HttpResponse<byte[]>> response)
+      throws IOException, InterruptedException {
+    try {
+      return response.get();
+    } catch (ExecutionException e) {
+      throw asIOException(e);
+    }
+  }
+
+  /**
+   * @return true for a 4xx status caused by the request itself, rather than by the API being overloaded (408, 429)
+   */
+  private static boolean isClientError(int status) {
+    return status >= 400 && status < 500 && status != 408 && status != 429;
+  }
+
+  private static IOException asIOException(ExecutionException e) {
+    Throwable cause = e.getCause();
+    return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+  }
+
+  /**
+   * Checks the API responds at all, used by the circuit breaker to detect recovery.
+   */
+  private boolean probe() {
+    try {
+      get(apiRoot + "dataset?limit=0", null);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Logs a failed lookup without flooding the logs: skipped lookups only at debug level, and stack traces only when
+   * debug logging is enabled.
+   */
+  private void logFailure(String message, String key, Exception e) {
+    if (e instanceof LookupSkippedException) {
+      LOG.debug("{} {}: {}", message, key, e.getMessage());
+    } else if (LOG.isDebugEnabled()) {
+      LOG.warn("{} {}", message, key, e);
+    } else {
+      LOG.warn("{} {}: {}", message, key, e.toString());
+    }
+  }
+
   /**
    * Update the URL version from v1 to v2.
    * This isn't ideal, but will certainly easy the pain of transitioning between v1 and v2
@@ -114,4 +689,42 @@ public class TitleLookupServiceImpl implements TitleLookupService {
     }
     return baseUrl;
   }
+
+  /**
+   * A JSON document read from the API, with the validators of the response.
+   */
+  private static class Document {
+    // Null if not modified
+    private final JsonNode json;
+    private final String etag;
+    private final String lastModified;
+
+    Document(JsonNode json, String etag, String lastModified) {
+      this.json = json;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+    ValidatedTitle validated(String title) {
+      return new ValidatedTitle(title, etag, lastModified);
+    }
+  }
+
+  /**
+   * Thrown instead of sending a request that is known or expected to fail.
+   */
+  private static class LookupSkippedException extends IOException {
+    LookupSkippedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A request rejected by the API because of what was asked, e.g. a malformed key.
+   */
+  private static class ClientErrorException extends IOException {
+    ClientErrorException(String message) {
+      super(message);
+    }
+  }
 }
@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+/**
+ * One source of titles in a {@link CompositeTitleLookupService} chain, such as a memory cache, a local file or the
+ * API.
+ * <p>
+ * Unlike a {@link TitleLookupService}, a tier answers null for keys it doesn't know or fails to look up, so the chain
+ * can try the next tier. Writable tiers also store titles found in lower tiers.
+ */
+public interface TitleLookupTier {
+
+  /**
+   * @return the dataset title, or null if this tier can't provide it
+   */
+  String findDatasetTitle(String datasetKey);
+
+  /**
+   * @param checklistKey checklist scoping the name, may be null
+   * @return the species name, followed by the checklist title if scoped to a checklist, or null if this tier can't
+   *     provide it
+   */
+  String findSpeciesName(String usageKey, String checklistKey);
+
+  /**
+   * Stores a dataset title found in a lower tier. Read-only tiers ignore it.
+   */
+  default void storeDatasetTitle(String datasetKey, String title) {}
+
+  /**
+   * Stores a species name found in a lower tier. Read-only tiers ignore it.
+   */
+  default void storeSpeciesName(String usageKey, String checklistKey, String name) {}
+}
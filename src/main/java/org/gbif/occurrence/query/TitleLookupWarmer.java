@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prefetches frequently used titles in the background, so a freshly started service answers the common lookups from
+ * its cache.
+ * <p>
+ * Hot keys use the cache key layout of {@link CachingTitleLookupService#saveHotKeys}, one per line:
+ * {@code dataset<TAB>datasetKey}, {@code species<TAB>usageKey} or {@code species<TAB>checklistKey/usageKey}.
+ * Lookups run on daemon threads at a limited rate, and never delay the caller.
+ */
+public class TitleLookupWarmer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TitleLookupWarmer.class);
+
+  private final TitleLookupService service;
+  private final double lookupsPerSecond;
+  private final int concurrency;
+
+  /**
+   * @param service the (caching) service to warm up
+   * @param lookupsPerSecond maximum rate of prefetch lookups
+   * @param concurrency number of prefetch lookups run in parallel
+   */
+  public TitleLookupWarmer(TitleLookupService service, double lookupsPerSecond, int concurrency) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be at least 1");
+    }
+    this.service = service;
+    this.lookupsPerSecond = lookupsPerSecond;
+    this.concurrency = concurrency;
+  }
+
+  /**
+   * Starts prefetching the keys listed in a file, if it exists.
+   *
+   * @return a future of the number of keys looked up, which stops the prefetch if cancelled
+   */
+  public CompletableFuture<Integer> warmUp(Path hotKeysFile) {
+    if (!Files.exists(hotKeysFile)) {
+      LOG.debug("No hot keys file {}, nothing to warm up", hotKeysFile);
+      return CompletableFuture.completedFuture(0);
+    }
+    try {
+      return warmUp(readHotKeys(hotKeysFile));
+    } catch (IOException e) {
+      LOG.warn("Cannot read hot keys file {}: {}", hotKeysFile, e.toString());
+      return CompletableFuture.completedFuture(0);
+    }
+  }
+
+  /**
+   * Starts prefetching the given keys.
+   *
+   * @return a future of the number of keys looked up, which stops the prefetch if cancelled
+   */
+  public CompletableFuture<Integer> warmUp(Collection<String> hotKeys) {
+    if (hotKeys.isEmpty()) {
+      return CompletableFuture.completedFuture(0);
+    }
+
+    long start = System.currentTimeMillis();
+    Queue<String> queue = new ConcurrentLinkedQueue<>(hotKeys);
+    TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(lookupsPerSecond, concurrency);
+    AtomicInteger done = new AtomicInteger();
+    AtomicBoolean stopped = new AtomicBoolean();
+
+    int threads = Math.min(concurrency, hotKeys.size());
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            threads,
+            r -> {
+              Thread t = new Thread(r, "title-lookup-warmup");
+              t.setDaemon(true);
+              return t;
+            });
+
+    CompletableFuture<?>[] workers = new CompletableFuture<?>[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] =
+          CompletableFuture.runAsync(
+              () -> {
+                String hotKey;
+                while (!stopped.get() && (hotKey = queue.poll()) != null) {
+                  try {
+                    rateLimiter.acquire();
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                  }
+                  try {
+                    lookup(hotKey);
+                  } catch (RuntimeException e) {
+                    LOG.debug("Warm up lookup of {} failed", hotKey, e);
+                  }
+                  done.incrementAndGet();
+                }
+              },
+              executor);
+    }
+
+    CompletableFuture<Integer> result =
+        CompletableFuture.allOf(workers).thenApply(v -> done.get());
+    result.whenComplete(
+        (count, e) -> {
+          stopped.set(true);
+          executor.shutdown();
+          LOG.info(
+              "Warmed up {} of {} title lookups in {}ms",
+              done.get(),
+              hotKeys.size(),
+              System.currentTimeMillis() - start);
+        });
+    return result;
+  }
+
+  /**
+   * Reads hot keys from a file, ignoring blank lines and lines starting with {@code #}.
+   */
+  public static List<String> readHotKeys(Path file) throws IOException {
+    return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+        .filter(line -> !line.isEmpty() && line.charAt(0) != '#')
+        .collect(Collectors.toList());
+  }
+
+  private void lookup(String hotKey) {
+    int tab = hotKey.indexOf('\t');
+    if (tab < 0) {
+      LOG.debug("Ignoring invalid hot key {}", hotKey);
+      return;
+    }
+    String kind = hotKey.substring(0, tab);
+    String key = hotKey.substring(tab + 1);
+
+    if (SnapshotTitleLookupService.DATASET.equals(kind)) {
+      service.getDatasetTitle(key);
+    } else if (SnapshotTitleLookupService.SPECIES.equals(kind)) {
+      int slash = key.indexOf('/');
+      if (slash < 0) {
+        service.getSpeciesName(key);
+      } else {
+        service.getSpeciesName(key.substring(slash + 1), key.substring(0, slash));
+      }
+    } else {
+      LOG.debug("Ignoring hot key of unknown type {}", hotKey);
+    }
+  }
+}
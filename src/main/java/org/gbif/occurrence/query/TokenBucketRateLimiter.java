@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, refilled continuously at a fixed rate up to a maximum burst.
+ * A caller finding the bucket empty reserves a future token and sleeps until it is due, so waiting callers are served
+ * in order and the long run rate never exceeds the configured one.
+ */
+final class TokenBucketRateLimiter {
+
+  private final double permitsPerNano;
+  private final double maxPermits;
+
+  // Guarded by this
+  private double permits;
+  private long lastRefill = System.nanoTime();
+
+  /**
+   * @param permitsPerSecond sustained rate
+   * @param burst maximum number of permits handed out at once after an idle period
+   */
+  TokenBucketRateLimiter(double permitsPerSecond, int burst) {
+    if (permitsPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("Rate and burst must be positive");
+    }
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.maxPermits = burst;
+    this.permits = burst;
+  }
+
+  /**
+   * Takes a permit, waiting until one is available.
+   */
+  void acquire() throws InterruptedException {
+    long waitNanos = reserve();
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Takes a permit only if one is available right away.
+   *
+   * @return true if a permit was taken
+   */
+  synchronized boolean tryAcquire() {
+    refill(System.nanoTime());
+    if (permits < 1) {
+      return false;
+    }
+    permits -= 1;
+    return true;
+  }
+
+  /**
+   * @return the permitted rate, per second
+   */
+  double getRate() {
+    return permitsPerNano * TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private synchronized long reserve() {
+    refill(System.nanoTime());
+    permits -= 1;
+    return permits >= 0 ? 0 : (long) (-permits / permitsPerNano);
+  }
+
+  private void refill(long now) {
+    permits = Math.min(maxPermits, permits + (now - lastRefill) * permitsPerNano);
+    lastRefill = now;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+/**
+ * A looked up title, with the HTTP validators of the response it was read from, so it can later be revalidated with a
+ * conditional request.
+ */
+public final class ValidatedTitle {
+
+  private final String title;
+  private final String etag;
+  private final String lastModified;
+
+  /**
+   * @param etag ETag header of the response, may be null
+   * @param lastModified Last-Modified header of the response, may be null
+   */
+  public ValidatedTitle(String title, String etag, String lastModified) {
+    this.title = title;
+    this.etag = etag;
+    this.lastModified = lastModified;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return true if the title can be revalidated
+   */
+  public boolean hasValidators() {
+    return etag != null || lastModified != null;
+  }
+}
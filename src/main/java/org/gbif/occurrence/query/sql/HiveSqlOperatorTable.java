@@ -14,6 +14,7 @@
 package org.gbif.occurrence.query.sql;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -24,14 +25,17 @@ import org.apache.calcite.sql.SqlFunctionCategory;
 import org.apache.calcite.sql.SqlOperator;
 import org.apache.calcite.sql.SqlOperatorTable;
 import org.apache.calcite.sql.SqlSyntax;
+import org.apache.calcite.sql.dialect.GbifHiveSqlDialect;
 import org.apache.calcite.sql.fun.SqlDatePartFunction;
 import org.apache.calcite.sql.fun.SqlLibrary;
 import org.apache.calcite.sql.fun.SqlLibraryOperatorTableFactory;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.sql.type.InferTypes;
 import org.apache.calcite.sql.type.OperandTypes;
 import org.apache.calcite.sql.type.ReturnTypes;
 import org.apache.calcite.sql.type.SqlOperandCountRanges;
 import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.calcite.sql.util.SqlOperatorTables;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 import com.google.common.collect.ImmutableList;
@@ -71,6 +75,8 @@ public class HiveSqlOperatorTable {
 
   List<SqlOperator> additionalOperators = new ArrayList<>();
 
+  private final SqlOperatorTable operatorTable;
+
   private HiveSqlOperatorTable() {
     SqlOperatorTable opTab =
         SqlLibraryOperatorTableFactory.INSTANCE.getOperatorTable(EnumSet.of(SqlLibrary.SPARK));
@@ -457,18 +463,30 @@ public class HiveSqlOperatorTable {
 
     // Utility functions
     // Support for lambda expressions used by higher-order functions like EXISTS(array, x -> x IN (...))
-    // The validator transforms `x -> expr` into `TAXON_LOOKUP(x, expr)`.
+    // The validator transforms `x -> expr` into `TAXON_LOOKUP(x, expr)`, which GbifHiveSqlDialect unparses back.
     final SqlFunction TAXON_LOOKUP =
         SqlBasicFunction.create(
-            "TAXON_LOOKUP",
+            GbifHiveSqlDialect.LAMBDA_FUNCTION,
             ReturnTypes.VARCHAR,
             OperandTypes.VARIADIC,
             SqlFunctionCategory.USER_DEFINED_FUNCTION);
     additionalOperators.add(TAXON_LOOKUP);
+
+    operatorTable =
+        SqlOperatorTables.chain(
+            SqlStdOperatorTable.instance(), SqlOperatorTables.of(additionalOperators));
   }
 
   public List<SqlOperator> getAdditionalOperators() {
-    return additionalOperators;
+    return Collections.unmodifiableList(additionalOperators);
+  }
+
+  /**
+   * @return the standard operators followed by the Hive ones, never modified, so it can be shared by any number of
+   *     validators
+   */
+  public SqlOperatorTable getOperatorTable() {
+    return operatorTable;
   }
 
   private static @MonotonicNonNull HiveSqlOperatorTable instance;
@@ -16,8 +16,8 @@ package org.gbif.occurrence.query.sql;
 import org.gbif.api.exception.QueryBuildingException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.function.UnaryOperator;
 
 import org.apache.calcite.sql.SqlBasicCall;
@@ -31,35 +31,64 @@ import org.apache.calcite.sql.dialect.GbifHiveSqlDialect;
 import org.apache.calcite.sql.dialect.HiveSqlDialect;
 import org.apache.calcite.util.Util;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 
 /**
  * A parsed, validated Hive SQL query.
  *
- * Exposes useful parts of the query.
+ * Exposes useful parts of the query. Instances are immutable, so they can be cached and shared between threads, see
+ * {@link HiveSqlQueryCache}.
+ *
+ * The SQL strings and column names are rendered when first requested, so callers only validating a query don't pay
+ * for rendering. Once all of them are rendered the parsed query is released, as it is much larger than the strings.
  */
 @Getter
 public class HiveSqlQuery {
 
+  // Nicely formatted SQL
+  private static final SqlDialect PRETTY_SQL_DIALECT =
+      new GbifHiveSqlDialect(
+          HiveSqlDialect.DEFAULT_CONTEXT
+              .withDatabaseMajorVersion(3)
+              // Override quote string, which is empty even though Hive's quote string is `, and
+              // which we
+              // want to be " for alignment with standard ANSI SQL.
+              .withIdentifierQuoteString("\""));
+
+  private static final UnaryOperator<SqlWriterConfig> SQL_WRITER_CONFIG =
+      c ->
+          c.withDialect(PRETTY_SQL_DIALECT)
+              .withClauseStartsLine(true)
+              .withClauseEndsLine(true)
+              .withIndentation(2)
+              .withAlwaysUseParentheses(false)
+              .withQuoteAllIdentifiers(false) // Only quote identifiers like "year"
+              .withLineFolding(SqlWriterConfig.LineFolding.TALL);
+
+  // Null once everything is rendered
+  @Getter(AccessLevel.NONE)
+  private volatile Parsed parsed;
+
   /*
    * SQL string for internal use — validation, execution using Hive.
    */
-  final String sql;
+  private volatile String sql;
 
   /*
    * SQL WHERE clause string for internal use — validation, execution using Hive.
    */
-  final String sqlWhere;
+  private volatile String sqlWhere;
 
   /*
    * User-facing SQL string — nicely formatted, and without internal catalogue/table names or other
    * implementation concerns.
    */
-  final String userSql;
+  private volatile String userSql;
 
-  final List<String> sqlSelectColumnNames;
-  final Integer predicateCount;
-  final Integer pointsCount;
+  private volatile List<String> sqlSelectColumnNames;
+  private final Integer predicateCount;
+  private final Integer pointsCount;
 
   /**
    * Parse and validate the query.  Throws an exception if parsing/validation fails.
@@ -74,66 +103,131 @@ public class HiveSqlQuery {
    */
   public HiveSqlQuery(HiveSqlValidator sqlValidator, String unvalidatedSql, String catalog)
       throws QueryBuildingException {
-    SqlDialect sqlDialect = sqlValidator.getDialect();
-
-    SqlSelect node = sqlValidator.validate(unvalidatedSql, catalog);
-
-    // Nicely formatted SQL
-    SqlDialect prettySqlDialect =
-        new GbifHiveSqlDialect(
-            HiveSqlDialect.DEFAULT_CONTEXT
-                .withDatabaseMajorVersion(3)
-                // Override quote string, which is empty even though Hive's quote string is `, and
-                // which we
-                // want to be " for alignment with standard ANSI SQL.
-                .withIdentifierQuoteString("\""));
-    UnaryOperator<SqlWriterConfig> sqlWriterConfig =
-        c ->
-            c.withDialect(prettySqlDialect)
-                .withClauseStartsLine(true)
-                .withClauseEndsLine(true)
-                .withIndentation(2)
-                .withAlwaysUseParentheses(false)
-                .withQuoteAllIdentifiers(false) // Only quote identifiers like "year"
-                .withLineFolding(SqlWriterConfig.LineFolding.TALL);
-
-    // Internal SQL
-    this.sql = LambdaUtil.convertLambda(node.toSqlString(sqlDialect).getSql());
-
-    // Nicely formatted SQL for the user
-    this.userSql = LambdaUtil.convertLambda(node.toSqlString(sqlWriterConfig).getSql());
-
-    if (node.getWhere() != null) {
-      this.sqlWhere = LambdaUtil.convertLambda(node.getWhere().toSqlString(sqlDialect).getSql());
-    } else {
-      this.sqlWhere = "1 = 1";
+    SqlQueryAnalysis analysis = sqlValidator.validateAndAnalyze(unvalidatedSql, catalog);
+    this.parsed = new Parsed(sqlValidator, analysis.getSelect());
+
+    // Counted while validating
+    predicateCount = analysis.getPredicateCount();
+    pointsCount = analysis.getPointsCount();
+  }
+
+  // The renders below are idempotent, so two threads racing to render a string just do it twice. The parsed query is
+  // only released after all strings are set, so it being released means the string is there.
+
+  public String getSql() {
+    String s = sql;
+    if (s == null) {
+      Parsed p = parsed;
+      if (p == null) {
+        return sql;
+      }
+      // Internal SQL
+      long start = System.nanoTime();
+      s = p.node.toSqlString(p.sqlValidator.getDialect()).getSql();
+      p.sqlValidator.phaseCompleted(SqlQueryListener.Phase.RENDER_SQL, start);
+      sql = s;
+      releaseIfRendered();
+    }
+    return s;
+  }
+
+  public String getUserSql() {
+    String s = userSql;
+    if (s == null) {
+      Parsed p = parsed;
+      if (p == null) {
+        return userSql;
+      }
+      // Nicely formatted SQL for the user
+      long start = System.nanoTime();
+      s = p.node.toSqlString(SQL_WRITER_CONFIG).getSql();
+      p.sqlValidator.phaseCompleted(SqlQueryListener.Phase.RENDER_USER_SQL, start);
+      userSql = s;
+      releaseIfRendered();
     }
+    return s;
+  }
 
-    sqlSelectColumnNames = new ArrayList<>();
-
-    // Finds suitable column names from the SQL select part.  Rather than the typical database
-    // naming of "c0" etc
-    // for expressions, we return the expression. They might need further cleaning!
-    for (SqlNode n : node.getSelectList().getList()) {
-      if (SqlKind.IDENTIFIER == n.getKind()) {
-        SqlIdentifier i = (SqlIdentifier) n;
-        sqlSelectColumnNames.add(Util.last(i.names));
-      } else if (SqlKind.AS == n.getKind()) {
-        SqlBasicCall a = (SqlBasicCall) n;
-        sqlSelectColumnNames.add(Util.last(a.getOperandList()).toSqlString(sqlDialect).getSql());
+  public String getSqlWhere() {
+    String s = sqlWhere;
+    if (s == null) {
+      Parsed p = parsed;
+      if (p == null) {
+        return sqlWhere;
+      }
+      long start = System.nanoTime();
+      if (p.node.getWhere() != null) {
+        s = p.node.getWhere().toSqlString(p.sqlValidator.getDialect()).getSql();
       } else {
-        sqlSelectColumnNames.add(n.toSqlString(sqlDialect).getSql());
+        s = "1 = 1";
       }
+      p.sqlValidator.phaseCompleted(SqlQueryListener.Phase.RENDER_WHERE, start);
+      sqlWhere = s;
+      releaseIfRendered();
     }
+    return s;
+  }
 
-    // Count predicates
-    Map<SqlKind, Integer> count = node.accept(new KindValidatorAndCounterVisitor());
-    predicateCount =
-        count.getOrDefault(SqlKind.LITERAL, 0)
-            + count.getOrDefault(SqlKind.AND, 0)
-            + count.getOrDefault(SqlKind.OR, 0);
+  /**
+   * @return the names of the selected columns, in an unmodifiable list as it is shared by every user of the query
+   */
+  public List<String> getSqlSelectColumnNames() {
+    List<String> names = sqlSelectColumnNames;
+    if (names == null) {
+      Parsed p = parsed;
+      if (p == null) {
+        return sqlSelectColumnNames;
+      }
+      SqlDialect sqlDialect = p.sqlValidator.getDialect();
+      List<String> columnNames = new ArrayList<>();
+
+      // Finds suitable column names from the SQL select part.  Rather than the typical database
+      // naming of "c0" etc
+      // for expressions, we return the expression. They might need further cleaning!
+      for (SqlNode n : p.node.getSelectList().getList()) {
+        if (SqlKind.IDENTIFIER == n.getKind()) {
+          SqlIdentifier i = (SqlIdentifier) n;
+          columnNames.add(Util.last(i.names));
+        } else if (SqlKind.AS == n.getKind()) {
+          SqlBasicCall a = (SqlBasicCall) n;
+          columnNames.add(Util.last(a.getOperandList()).toSqlString(sqlDialect).getSql());
+        } else {
+          columnNames.add(n.toSqlString(sqlDialect).getSql());
+        }
+      }
+      names = Collections.unmodifiableList(columnNames);
+      sqlSelectColumnNames = names;
+      releaseIfRendered();
+    }
+    return names;
+  }
+
+  /**
+   * Renders everything now, releasing the parsed query, e.g. before keeping the query for long.
+   */
+  void render() {
+    getSql();
+    getSqlWhere();
+    getUserSql();
+    getSqlSelectColumnNames();
+  }
 
-    // Count points in geometry within queries
-    pointsCount = node.accept(new GeometryPointCounterVisitor());
+  private void releaseIfRendered() {
+    if (sql != null && sqlWhere != null && userSql != null && sqlSelectColumnNames != null) {
+      parsed = null;
+    }
+  }
+
+  /**
+   * The parsed query and the validator rendering it, released together.
+   */
+  private static final class Parsed {
+    private final HiveSqlValidator sqlValidator;
+    private final SqlSelect node;
+
+    private Parsed(HiveSqlValidator sqlValidator, SqlSelect node) {
+      this.sqlValidator = sqlValidator;
+      this.node = node;
+    }
   }
 }
@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+import org.gbif.api.exception.QueryBuildingException;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Bounded cache of validated queries, so a query submitted again, or checked again later, isn't parsed, validated and
+ * rendered every time.
+ * <p>
+ * The cache is bounded by the total length of the queries rather than their number, as a cached query holds
+ * structures growing with its length: each query weighs one per started {@value #WEIGHT_UNIT_CHARS} characters.
+ * <p>
+ * Queries are keyed by their text with comments removed and whitespace collapsed, outside string literals and quoted
+ * identifiers, together with the catalog. Queries failing validation are cached too, and throw the same message
+ * again, which refers to the line and column of the first query seen with that key.
+ * Optimizer hints ({@code /*+ ... *}{@code /}) are kept in the key, as they are rejected by the validator.
+ * <p>
+ * Queries are rendered before being cached, see {@link HiveSqlQuery#render()}.
+ * <p>
+ * This class is thread safe, and a query is only validated once even if it's requested concurrently.
+ */
+public class HiveSqlQueryCache {
+
+  static final int WEIGHT_UNIT_CHARS = 1024;
+
+  private final HiveSqlValidator sqlValidator;
+  private final Cache<String, Result> cache;
+
+  /**
+   * @param maxSize maximum number of queries of up to {@value #WEIGHT_UNIT_CHARS} characters kept, longer queries
+   *     counting as several
+   */
+  public HiveSqlQueryCache(HiveSqlValidator sqlValidator, long maxSize) {
+    this.sqlValidator = Objects.requireNonNull(sqlValidator);
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxSize)
+            .weigher((String key, Result result) -> weight(key))
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * @return the validated query, see {@link HiveSqlQuery#HiveSqlQuery(HiveSqlValidator, String)}
+   * @throws QueryBuildingException if the query is invalid
+   */
+  public HiveSqlQuery get(String sql) throws QueryBuildingException {
+    return get(sql, null);
+  }
+
+  /**
+   * @return the validated query, see {@link HiveSqlQuery#HiveSqlQuery(HiveSqlValidator, String, String)}
+   * @throws QueryBuildingException if the query is invalid
+   */
+  public HiveSqlQuery get(String sql, String catalog) throws QueryBuildingException {
+    String key = normalize(sql) + '\u0000' + (catalog == null ? "" : catalog);
+    Result result;
+    try {
+      result =
+          cache.get(
+              key,
+              () -> {
+                try {
+                  HiveSqlQuery query = new HiveSqlQuery(sqlValidator, sql, catalog);
+                  // Kept for long, so rendered once and for all to release the parsed query
+                  query.render();
+                  return new Result(query, null);
+                } catch (QueryBuildingException e) {
+                  return new Result(null, e);
+                }
+              });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      // Only unexpected failures, which aren't cached
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+
+    if (result.error != null) {
+      throw new QueryBuildingException(result.error.getMessage(), result.error);
+    }
+    return result.query;
+  }
+
+  /**
+   * @return number of queries answered from the cache
+   */
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /**
+   * @return number of queries validated
+   */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /**
+   * @return ratio of queries answered from the cache, 1 if no query was requested yet
+   */
+  public double getHitRatio() {
+    return cache.stats().hitRate();
+  }
+
+  /**
+   * @return number of queries currently cached, valid or not
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  static int weight(String key) {
+    return 1 + key.length() / WEIGHT_UNIT_CHARS;
+  }
+
+  /**
+   * Removes comments and collapses whitespace outside string literals and quoted identifiers.
+   */
+  static String normalize(String sql) {
+    StringBuilder b = new StringBuilder(sql.length());
+    int length = sql.length();
+    int i = 0;
+    boolean space = false;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"') {
+        // Literal or quoted identifier, a doubled quote being an escaped one
+        int end = i + 1;
+        while (end < length) {
+          if (sql.charAt(end) == c) {
+            if (end + 1 < length && sql.charAt(end + 1) == c) {
+              end += 2;
+              continue;
+            }
+            break;
+          }
+          end++;
+        }
+        end = Math.min(end + 1, length);
+        space = appendSpace(b, space);
+        b.append(sql, i, end);
+        i = end;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end;
+        space = true;
+      } else if (c == '/'
+          && i + 2 < length
+          && sql.charAt(i + 1) == '*'
+          && sql.charAt(i + 2) != '+') {
+        int end = sql.indexOf("*/", i + 2);
+        if (end < 0) {
+          // Unterminated, which the parser rejects, so it's kept to not match the query without it
+          space = appendSpace(b, space);
+          b.append(sql, i, length);
+          break;
+        }
+        i = end + 2;
+        space = true;
+      } else if (Character.isWhitespace(c)) {
+        i++;
+        space = true;
+      } else {
+        space = appendSpace(b, space);
+        b.append(c);
+        i++;
+      }
+    }
+    return b.toString();
+  }
+
+  /**
+   * Appends a pending space, except at the start.
+   */
+  private static boolean appendSpace(StringBuilder b, boolean space) {
+    if (space && b.length() > 0) {
+      b.append(' ');
+    }
+    return false;
+  }
+
+  /**
+   * A validated query, or the reason it's invalid.
+   */
+  private static final class Result {
+    private final HiveSqlQuery query;
+    private final QueryBuildingException error;
+
+    private Result(HiveSqlQuery query, QueryBuildingException error) {
+      this.query = query;
+      this.error = error;
+    }
+  }
+}
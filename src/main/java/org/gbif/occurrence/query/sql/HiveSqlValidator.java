@@ -16,13 +16,12 @@ package org.gbif.occurrence.query.sql;
 import org.apache.calcite.sql.dialect.SparkSqlDialect;
 import org.gbif.api.exception.QueryBuildingException;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.UnaryOperator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.calcite.avatica.util.Casing;
 import org.apache.calcite.avatica.util.Quoting;
@@ -30,7 +29,6 @@ import org.apache.calcite.config.CalciteConnectionConfigImpl;
 import org.apache.calcite.config.CalciteConnectionProperty;
 import org.apache.calcite.jdbc.CalciteSchema;
 import org.apache.calcite.prepare.CalciteCatalogReader;
-import org.apache.calcite.prepare.Prepare;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.runtime.CalciteContextException;
 import org.apache.calcite.schema.SchemaPlus;
@@ -46,8 +44,8 @@ import org.apache.calcite.sql.SqlSelectKeyword;
 import org.apache.calcite.sql.SqlWriterConfig;
 import org.apache.calcite.sql.dialect.AnsiSqlDialect;
 import org.apache.calcite.sql.dialect.GbifHiveSqlDialect;
-import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParserPos;
 import org.apache.calcite.sql.parser.SqlParser;
 import org.apache.calcite.sql.parser.impl.SqlParserImpl;
 import org.apache.calcite.sql.type.SqlTypeFactoryImpl;
@@ -62,14 +60,11 @@ import org.apache.calcite.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.gbif.occurrence.query.sql.LambdaUtil.transformLambdaSyntax;
+import com.google.common.collect.ImmutableList;
 
 public class HiveSqlValidator {
   private static Logger LOG = LoggerFactory.getLogger(HiveSqlValidator.class);
 
-  private static final Pattern SEMICOLON_END = Pattern.compile("[;\\s]*;\\s*$");
-
-  private final SqlDialect dialect;
   private final SqlParser.Config parserConfig;
   private final SqlValidator.Config validatorConfig;
   private final SchemaPlus rootSchema;
@@ -77,7 +72,10 @@ public class HiveSqlValidator {
   private final RelDataTypeFactory relDataTypeFactory;
   private final CalciteCatalogReader catalogReader;
   private final SqlOperatorTable sqlOperatorTable;
-  private final UnaryOperator<SqlWriterConfig> sqlDebugWriterConfig;
+  private final SqlQueryListener listener;
+  private final SqlQueryLimits limits;
+  // Catalog qualified names of the table, by catalog
+  private final Map<String, List<String>> catalogTableNames = new ConcurrentHashMap<>();
 
   static {
     // This isn't here to fix any particular bug, but the default is ISO-8859-1 for some reason,
@@ -85,21 +83,45 @@ public class HiveSqlValidator {
     System.setProperty("calcite.default.charset", "UTF-8");
   }
 
+  // Immutable, so shared by all validators. Declared after the block above so the charset is set first.
+  // dialect = SqlDialect.DatabaseProduct.HIVE.getDialect();
+  private static final SqlDialect DIALECT =
+      new GbifHiveSqlDialect(SparkSqlDialect.DEFAULT_CONTEXT.withDatabaseMajorVersion(3));
+
+  private static final UnaryOperator<SqlWriterConfig> SQL_DEBUG_WRITER_CONFIG =
+      c ->
+          c.withDialect(Util.first(DIALECT, AnsiSqlDialect.DEFAULT))
+              .withClauseStartsLine(true)
+              .withClauseEndsLine(true)
+              .withIndentation(2)
+              .withAlwaysUseParentheses(false)
+              .withQuoteAllIdentifiers(
+                  true) // There's no quote string defined for HiveSqlDialect anyway.
+              .withLineFolding(SqlWriterConfig.LineFolding.TALL);
+
   public HiveSqlValidator(SchemaPlus rootSchema, List<SqlOperator> additionalOperators) {
-    // dialect = SqlDialect.DatabaseProduct.HIVE.getDialect();
-    dialect = new GbifHiveSqlDialect(SparkSqlDialect.DEFAULT_CONTEXT.withDatabaseMajorVersion(3));
-
-    sqlDebugWriterConfig =
-        c ->
-            c.withDialect(Util.first(dialect, AnsiSqlDialect.DEFAULT))
-                .withClauseStartsLine(true)
-                .withClauseEndsLine(true)
-                .withIndentation(2)
-                .withAlwaysUseParentheses(false)
-                .withQuoteAllIdentifiers(
-                    true) // There's no quote string defined for HiveSqlDialect anyway.
-                .withLineFolding(SqlWriterConfig.LineFolding.TALL);
+    this(rootSchema, additionalOperators, SqlQueryListener.NO_OP);
+  }
 
+  /**
+   * @param listener receives the timings and sizes of every query validated
+   */
+  public HiveSqlValidator(
+      SchemaPlus rootSchema, List<SqlOperator> additionalOperators, SqlQueryListener listener) {
+    this(rootSchema, additionalOperators, listener, SqlQueryLimits.DEFAULT);
+  }
+
+  /**
+   * @param listener receives the timings and sizes of every query validated
+   * @param limits size limits checked before a query is parsed
+   */
+  public HiveSqlValidator(
+      SchemaPlus rootSchema,
+      List<SqlOperator> additionalOperators,
+      SqlQueryListener listener,
+      SqlQueryLimits limits) {
+    this.listener = Objects.requireNonNull(listener);
+    this.limits = Objects.requireNonNull(limits);
     parserConfig =
         SqlParser.Config.DEFAULT
             .withParserFactory(SqlParserImpl.FACTORY)
@@ -113,12 +135,12 @@ public class HiveSqlValidator {
             .withColumnReferenceExpansion(false)
             .withCallRewrite(false); // Disable rewriting COALESCE as CASE WHEN, etc.
 
-    SqlStdOperatorTable sqlStdOperatorTable = SqlStdOperatorTable.instance();
-    // Built-in Hive functions
-    HiveSqlOperatorTable.instance().getAdditionalOperators().stream()
-        .forEach(sqlStdOperatorTable::register);
-    // Custom functions
-    additionalOperators.stream().forEach(sqlStdOperatorTable::register);
+    // Built-in Hive functions are in a table shared by all validators, custom functions in one of our own, so nothing
+    // is registered in Calcite's global standard operator table.
+    SqlOperatorTable operatorTable = HiveSqlOperatorTable.instance().getOperatorTable();
+    if (!additionalOperators.isEmpty()) {
+      operatorTable = SqlOperatorTables.chain(operatorTable, SqlOperatorTables.of(additionalOperators));
+    }
 
     this.rootSchema = rootSchema;
     this.frameworkConfig =
@@ -126,9 +148,9 @@ public class HiveSqlValidator {
             .parserConfig(parserConfig)
             .sqlValidatorConfig(validatorConfig)
             .defaultSchema(rootSchema)
-            .operatorTable(sqlStdOperatorTable)
+            .operatorTable(operatorTable)
             .build();
-    this.relDataTypeFactory = new SqlTypeFactoryImpl(dialect.getTypeSystem());
+    this.relDataTypeFactory = new SqlTypeFactoryImpl(DIALECT.getTypeSystem());
     Properties properties = new Properties();
     properties.setProperty(CalciteConnectionProperty.CASE_SENSITIVE.camelName(), "true");
     this.catalogReader =
@@ -146,22 +168,47 @@ public class HiveSqlValidator {
   }
 
   public SqlSelect validate(String sql, String catalog) throws QueryBuildingException {
+    return validateAndAnalyze(sql, catalog).getSelect();
+  }
+
+  /**
+   * Validates the query, and returns it with the analysis made while validating, so it isn't walked again.
+   */
+  SqlQueryAnalysis validateAndAnalyze(String sql, String catalog) throws QueryBuildingException {
     LOG.debug("Parsing «{}»", sql);
-    Matcher m = SEMICOLON_END.matcher(sql);
-    if (m.find()) {
-      sql = m.replaceAll("");
-      LOG.debug("Stripped trailing semicolon(s) «{}»", sql);
+    long start = System.nanoTime();
+    // Reject huge queries before scanning them, and oversized ones before parsing them.
+    String limitError = limits.getLengthError(sql);
+    if (limitError != null) {
+      LOG.warn("Rejected as too large; {}", limitError);
+      throw new QueryBuildingException(limitError);
+    }
+    // Strip trailing semicolons, and transform lambda arrow syntax (e.g. x -> x IN (1,2,3)) into a callable form
+    // TAXON_LOOKUP(x, x IN (1,2,3)) so that the Calcite parser (and our operator table) can validate higher-order
+    // functions used by Hive such as EXISTS(array, x -> x IN (...)).
+    SqlPreprocessor prepared = SqlPreprocessor.process(sql);
+    LOG.debug(
+        "Prepared as «{}», {} tokens and {} literals",
+        prepared.getSql(),
+        prepared.getTokenCount(),
+        prepared.getLiteralCount());
+    limitError = limits.getError(prepared);
+    if (limitError != null) {
+      LOG.warn("Rejected as too large; {}", limitError);
+      throw new QueryBuildingException(limitError);
     }
-    // Transform lambda arrow syntax (e.g. x -> x IN (1,2,3)) into a callable form LAMBDA(x, x IN (1,2,3))
-    // so that the Calcite parser (and our operator table) can validate higher-order functions
-    // used by Hive such as EXISTS(array, x -> x IN (...)).
-    sql = transformLambdaSyntax(sql);
+    sql = prepared.getSql();
+    start = phaseCompleted(SqlQueryListener.Phase.PREPARE, start);
     SqlParser sqlParser = SqlParser.create(sql, frameworkConfig.getParserConfig());
     try {
       SqlNode sqlNode = sqlParser.parseQuery();
+      start = phaseCompleted(SqlQueryListener.Phase.PARSE, start);
       SqlNode validatedSqlNode = newValidator().validate(sqlNode);
+      start = phaseCompleted(SqlQueryListener.Phase.VALIDATE, start);
 
-      LOG.debug("Validated as {}", validatedSqlNode.toSqlString(sqlDebugWriterConfig));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Validated as {}", validatedSqlNode.toSqlString(SQL_DEBUG_WRITER_CONFIG));
+      }
 
       if (validatedSqlNode.getKind() != SqlKind.SELECT) {
         LOG.warn(
@@ -218,25 +265,27 @@ public class HiveSqlValidator {
       LOG.trace("- Offset: {}", select.getOffset());
       // LOG.trace("- OpList: " + select.getOperandList());
 
-      for (SqlNode n : select.getSelectList().getList()) {
-        if (n instanceof SqlIdentifier) {
-          SqlIdentifier id = (SqlIdentifier) n;
-          if (id.isStar()) {
-            LOG.warn("Rejected as star selects are not supported; {} → {}.", sql, id);
-            throw new QueryBuildingException("Star selects are not supported.");
-          }
-        }
-        // #429: Check for SELECT expressions without an AS alias where the function has a comma, since Spark-SQL cannot
-        // autogenerate a column name for these.
-        if (n instanceof SqlBasicCall) {
-          SqlBasicCall bc = ((SqlBasicCall) n);
-          if (bc.getKind() != SqlKind.AS && bc.toSqlString(dialect).toString().contains(",")) {
-            throw new QueryBuildingException("SELECT columns using function expressions must have an alias, e.g. "+bc.toSqlString(dialect) + " AS col_x");
-          }
-        }
+      SqlQueryAnalysis analysis = SqlQueryAnalysis.analyze(select, DIALECT);
+      start = phaseCompleted(SqlQueryListener.Phase.ANALYZE, start);
+      listener.queryAnalyzed(
+          analysis.getNodeCount(), analysis.getCount(SqlKind.LITERAL), analysis.getPointsCount());
+
+      if (analysis.getStarSelect() != null) {
+        LOG.warn("Rejected as star selects are not supported; {} → {}.", sql, analysis.getStarSelect());
+        throw new QueryBuildingException("Star selects are not supported.");
       }
 
-      Map<SqlKind, Integer> count = select.accept(new KindValidatorAndCounterVisitor());
+      if (analysis.getUnaliasedSelect() != null) {
+        SqlBasicCall bc = analysis.getUnaliasedSelect();
+        throw new QueryBuildingException("SELECT columns using function expressions must have an alias, e.g. "+bc.toSqlString(DIALECT) + " AS col_x");
+      }
+
+      if (analysis.getOperatorError() != null) {
+        // Our custom reasons for invalidation.
+        throw new QueryBuildingException(analysis.getOperatorError());
+      }
+
+      Map<SqlKind, Integer> count = analysis.getKindCounts();
       LOG.debug("Count: {}", count);
       if (count.getOrDefault(SqlKind.SELECT, -1) != 1) {
         LOG.warn("Rejected as multiple selects present; {} → {}.", sql);
@@ -254,28 +303,17 @@ public class HiveSqlValidator {
       }
 
       // Validate WKT strings.
-      try {
-        select.accept(new GeometryPointCounterVisitor());
-      } catch (IllegalArgumentException e) {
-        throw new QueryBuildingException("Polygon used in GBIF_Within is invalid: "+e.getMessage());
+      if (analysis.getGeometryError() instanceof IllegalArgumentException) {
+        throw new QueryBuildingException("Polygon used in GBIF_Within is invalid: "+analysis.getGeometryError().getMessage());
+      } else if (analysis.getGeometryError() != null) {
+        throw analysis.getGeometryError();
       }
 
       // Prepend catalog if defined
       if (catalog != null) {
-        String firstTable = rootSchema.getTableNames().stream().findFirst().get();
-        Prepare.PreparingTable table =
-            catalogReader.getTable(Collections.singletonList(firstTable));
-
         // This gets "iceberg.occurrence" or whatever.
-        SqlNode fromTableIdentifier = ((SqlSelect)
-          sqlParser.parseQuery(
-            "SELECT "
-              + table.getRowType().getFieldList().get(0).getName()
-              + " FROM "
-              + catalog
-              + "."
-              + firstTable))
-          .getFrom();
+        SqlIdentifier fromTableIdentifier =
+            new SqlIdentifier(catalogTableNames(catalog), SqlParserPos.ZERO);
 
         if (select.getFrom().getKind() == SqlKind.IDENTIFIER) {
           // If the FROM is a plain table name replace it like this
@@ -284,24 +322,57 @@ public class HiveSqlValidator {
           // If it's "occurrence AS xxx" then replace just the table identifier.
           ((SqlBasicCall) select.getFrom()).setOperand(0, fromTableIdentifier);
         }
+        phaseCompleted(SqlQueryListener.Phase.CATALOG, start);
       }
 
-      return select;
+      return analysis;
     } catch (CalciteContextException cce) {
       // Just the main message is decent.
       throw new QueryBuildingException(cce.getMessage(), cce);
     } catch (SqlParseException spe) {
       // Use the first line only, otherwise there's a huge list of all possible keywords.
       throw new QueryBuildingException(spe.getMessage().split("\n")[0], spe);
-    } catch (KindValidatorAndCounterVisitor.SqlValidationException sve) {
-      // Our custom reasons for invalidation.
-      throw new QueryBuildingException(sve.getMessage(), sve);
     }
   }
 
 
   public SqlDialect getDialect() {
-    return dialect;
+    return DIALECT;
+  }
+
+  /**
+   * @return the names of the table qualified by the catalog, as the parser gives for {@code catalog.table}, so a
+   *     catalog may have several parts, and quoted parts keep their case
+   * @throws QueryBuildingException if the catalog isn't a valid identifier
+   */
+  private List<String> catalogTableNames(String catalog) throws QueryBuildingException {
+    List<String> names = catalogTableNames.get(catalog);
+    if (names == null) {
+      String firstTable = rootSchema.getTableNames().stream().findFirst().get();
+      SqlNode identifier;
+      try {
+        identifier = SqlParser.create(catalog + "." + firstTable, parserConfig).parseExpression();
+      } catch (SqlParseException e) {
+        throw new QueryBuildingException("Invalid catalog " + catalog, e);
+      }
+      if (!(identifier instanceof SqlIdentifier)) {
+        throw new QueryBuildingException("Invalid catalog " + catalog);
+      }
+      names = ImmutableList.copyOf(((SqlIdentifier) identifier).names);
+      catalogTableNames.putIfAbsent(catalog, names);
+    }
+    return names;
+  }
+
+  /**
+   * Reports a phase which started at the given time.
+   *
+   * @return the time the phase completed, when the next one starts
+   */
+  long phaseCompleted(SqlQueryListener.Phase phase, long start) {
+    long end = System.nanoTime();
+    listener.phaseCompleted(phase, end - start);
+    return end;
   }
 
   private SqlValidator newValidator() {
@@ -0,0 +1,300 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+import java.util.Arrays;
+
+import org.apache.calcite.sql.dialect.GbifHiveSqlDialect;
+
+/**
+ * Prepares SQL text for the Calcite parser in a single pass, skipping string literals, quoted identifiers and
+ * comments:
+ * <ul>
+ *   <li>trailing semicolons are stripped;</li>
+ *   <li>lambda expressions {@code x -> expr}, which Calcite 1.35 can't parse, are rewritten as
+ *       {@code TAXON_LOOKUP(x, expr)}, and written back by {@link GbifHiveSqlDialect};</li>
+ *   <li>tokens, literals, IN list values, nesting depth and string lengths are measured, so oversized queries can be
+ *       rejected before they are parsed, see {@link SqlQueryLimits}.</li>
+ * </ul>
+ * The body of a lambda ends at the first comma or closing parenthesis or bracket outside any it opened.
+ */
+final class SqlPreprocessor {
+
+  private final String sql;
+  private final int tokenCount;
+  private final int literalCount;
+  private final int maxInListWidth;
+  private final int maxNestingDepth;
+  private final int maxStringLength;
+
+  private SqlPreprocessor(
+      String sql,
+      int tokenCount,
+      int literalCount,
+      int maxInListWidth,
+      int maxNestingDepth,
+      int maxStringLength) {
+    this.sql = sql;
+    this.tokenCount = tokenCount;
+    this.literalCount = literalCount;
+    this.maxInListWidth = maxInListWidth;
+    this.maxNestingDepth = maxNestingDepth;
+    this.maxStringLength = maxStringLength;
+  }
+
+  /**
+   * @return the SQL to parse
+   */
+  String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return number of tokens, excluding whitespace and comments
+   */
+  int getTokenCount() {
+    return tokenCount;
+  }
+
+  /**
+   * @return number of string and numeric literals
+   */
+  int getLiteralCount() {
+    return literalCount;
+  }
+
+  /**
+   * @return number of values of the longest {@code IN (…)} list
+   */
+  int getMaxInListWidth() {
+    return maxInListWidth;
+  }
+
+  /**
+   * @return deepest nesting of parentheses and brackets
+   */
+  int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  /**
+   * @return length of the longest string literal, such as a WKT geometry, without its quotes
+   */
+  int getMaxStringLength() {
+    return maxStringLength;
+  }
+
+  static SqlPreprocessor process(String input) {
+    final int n = input.length();
+    StringBuilder out = new StringBuilder(n + 16);
+    int tokenCount = 0;
+    int literalCount = 0;
+    int maxInListWidth = 0;
+    int maxNestingDepth = 0;
+    int maxStringLength = 0;
+
+    int depth = 0;
+    // Values counted so far in the list opened at each depth if it follows IN, otherwise 0
+    int[] inListWidths = new int[16];
+    boolean afterIn = false;
+    // Parenthesis depth of each lambda whose body hasn't ended yet
+    int[] lambdaDepths = new int[4];
+    int lambdas = 0;
+    // Position in the output of the last token if it is an identifier, otherwise -1
+    int identifierStart = -1;
+    // End in the output of the last token other than a semicolon
+    int contentEnd = 0;
+    boolean trailingSemicolon = false;
+
+    int i = 0;
+    while (i < n) {
+      char c = input.charAt(i);
+      char next = i + 1 < n ? input.charAt(i + 1) : 0;
+      int end;
+
+      // Whitespace and comments are copied, and don't separate a lambda variable from its arrow.
+      if (Character.isWhitespace(c)) {
+        end = i + 1;
+        while (end < n && Character.isWhitespace(input.charAt(end))) {
+          end++;
+        }
+        out.append(input, i, end);
+        i = end;
+        continue;
+      }
+      if (c == '-' && next == '-') {
+        end = input.indexOf('\n', i);
+        end = end < 0 ? n : end;
+        out.append(input, i, end);
+        i = end;
+        continue;
+      }
+      if (c == '/' && next == '*') {
+        end = input.indexOf("*/", i + 2);
+        end = end < 0 ? n : end + 2;
+        out.append(input, i, end);
+        i = end;
+        continue;
+      }
+
+      tokenCount++;
+      if (c == ';') {
+        out.append(c);
+        identifierStart = -1;
+        afterIn = false;
+        trailingSemicolon = true;
+        i++;
+        continue;
+      }
+      trailingSemicolon = false;
+
+      if (c == '-' && next == '>' && identifierStart >= 0) {
+        // The identifier is the last thing written, so inserting before it only moves a few characters.
+        out.insert(identifierStart, GbifHiveSqlDialect.LAMBDA_FUNCTION + "(");
+        out.append(',');
+        if (lambdas == lambdaDepths.length) {
+          lambdaDepths = Arrays.copyOf(lambdaDepths, lambdas * 2);
+        }
+        lambdaDepths[lambdas++] = depth;
+        identifierStart = -1;
+        afterIn = false;
+        contentEnd = out.length();
+        i += 2;
+        continue;
+      }
+
+      boolean identifier = false;
+      if (c == '\'') {
+        end = endOfQuoted(input, i, '\'');
+        literalCount++;
+        maxStringLength = Math.max(maxStringLength, end - i - 2);
+      } else if (c == '"') {
+        end = endOfQuoted(input, i, '"');
+        identifier = true;
+      } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+        end = endOfNumber(input, i);
+        literalCount++;
+      } else if (Character.isLetter(c) || c == '_') {
+        end = i + 1;
+        while (end < n && isIdentifierPart(input.charAt(end))) {
+          end++;
+        }
+        identifier = true;
+      } else {
+        end = i + 1;
+        if (c == '(' || c == '[') {
+          depth++;
+          maxNestingDepth = Math.max(maxNestingDepth, depth);
+          if (depth > 0) {
+            if (depth == inListWidths.length) {
+              inListWidths = Arrays.copyOf(inListWidths, depth * 2);
+            }
+            inListWidths[depth] = c == '(' && afterIn ? 1 : 0;
+          }
+        } else if (c == ')' || c == ']' || c == ',') {
+          while (lambdas > 0 && lambdaDepths[lambdas - 1] == depth) {
+            out.append(')');
+            lambdas--;
+          }
+          if (depth > 0 && inListWidths[depth] > 0) {
+            if (c == ',') {
+              inListWidths[depth]++;
+            } else {
+              maxInListWidth = Math.max(maxInListWidth, inListWidths[depth]);
+            }
+          }
+          if (c != ',') {
+            depth--;
+          }
+        }
+      }
+
+      afterIn = identifier && c != '"' && end - i == 2 && input.regionMatches(true, i, "IN", 0, 2);
+      identifierStart = identifier ? out.length() : -1;
+      out.append(input, i, end);
+      contentEnd = out.length();
+      i = end;
+    }
+
+    if (trailingSemicolon) {
+      out.setLength(contentEnd);
+    }
+    if (lambdas > 0) {
+      // Lambdas still open end with the query, before any trailing comment.
+      char[] closing = new char[lambdas];
+      Arrays.fill(closing, ')');
+      out.insert(contentEnd, closing);
+    }
+    return new SqlPreprocessor(
+        out.toString(),
+        tokenCount,
+        literalCount,
+        maxInListWidth,
+        maxNestingDepth,
+        maxStringLength);
+  }
+
+  /**
+   * @return the index after the closing quote, where doubled quotes are escaped quotes, or the end of the input
+   */
+  private static int endOfQuoted(String input, int start, char quote) {
+    int i = start + 1;
+    while (true) {
+      int close = input.indexOf(quote, i);
+      if (close < 0) {
+        return input.length();
+      }
+      if (close + 1 < input.length() && input.charAt(close + 1) == quote) {
+        i = close + 2;
+      } else {
+        return close + 1;
+      }
+    }
+  }
+
+  private static int endOfNumber(String input, int start) {
+    final int n = input.length();
+    int i = start;
+    while (i < n && isDigit(input.charAt(i))) {
+      i++;
+    }
+    if (i < n && input.charAt(i) == '.') {
+      i++;
+      while (i < n && isDigit(input.charAt(i))) {
+        i++;
+      }
+    }
+    if (i < n && (input.charAt(i) == 'e' || input.charAt(i) == 'E')) {
+      int exponent = i + 1;
+      if (exponent < n && (input.charAt(exponent) == '+' || input.charAt(exponent) == '-')) {
+        exponent++;
+      }
+      if (exponent < n && isDigit(input.charAt(exponent))) {
+        i = exponent;
+        while (i < n && isDigit(input.charAt(i))) {
+          i++;
+        }
+      }
+    }
+    return i;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+}
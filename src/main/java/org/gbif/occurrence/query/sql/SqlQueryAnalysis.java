@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.calcite.sql.SqlBasicCall;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDataTypeSpec;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlIntervalQualifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.util.SqlVisitor;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Everything we check and count in a validated SELECT, gathered in a single walk of the tree: the number of nodes of
+ * each kind, the number of points in GBIF_WITHIN geometries, and the problems found in the select list, in operators
+ * and in geometries.
+ * <p>
+ * Problems are recorded rather than thrown, so {@link HiveSqlValidator} can report them in its own order.
+ */
+final class SqlQueryAnalysis {
+
+  static final String GBIF_WITHIN = "gbif_within";
+
+  private static final ImmutableList<String> MISTAKEN_AS_FIELDS = ImmutableList.of("year", "month", "day");
+
+  private final SqlSelect select;
+  private final Map<SqlKind, Integer> kindCounts;
+  private final int nodeCount;
+  private final int pointsCount;
+  private final SqlIdentifier starSelect;
+  private final SqlBasicCall unaliasedSelect;
+  private final String operatorError;
+  private final RuntimeException geometryError;
+
+  private SqlQueryAnalysis(SqlSelect select, SqlIdentifier starSelect, SqlBasicCall unaliasedSelect, Visitor visitor) {
+    this.select = select;
+    this.starSelect = starSelect;
+    this.unaliasedSelect = unaliasedSelect;
+    this.kindCounts = visitor.snapshotKindCounts();
+    this.nodeCount = kindCounts.values().stream().mapToInt(Integer::intValue).sum();
+    this.pointsCount = visitor.pointsCount;
+    this.operatorError = visitor.operatorError;
+    this.geometryError = visitor.geometryError;
+  }
+
+  /**
+   * Analyses a validated SELECT.
+   *
+   * @param dialect used to render select list expressions
+   */
+  static SqlQueryAnalysis analyze(SqlSelect select, SqlDialect dialect) {
+    // Only the first problem of the select list is reported
+    SqlIdentifier starSelect = null;
+    SqlBasicCall unaliasedSelect = null;
+    for (SqlNode n : select.getSelectList().getList()) {
+      if (n instanceof SqlIdentifier && ((SqlIdentifier) n).isStar()) {
+        starSelect = (SqlIdentifier) n;
+        break;
+      }
+      // #429: Check for SELECT expressions without an AS alias where the function has a comma, since Spark-SQL cannot
+      // autogenerate a column name for these.
+      if (n instanceof SqlBasicCall) {
+        SqlBasicCall bc = (SqlBasicCall) n;
+        if (bc.getKind() != SqlKind.AS && bc.toSqlString(dialect).toString().contains(",")) {
+          unaliasedSelect = bc;
+          break;
+        }
+      }
+    }
+
+    Visitor visitor = new Visitor();
+    select.accept(visitor);
+    return new SqlQueryAnalysis(select, starSelect, unaliasedSelect, visitor);
+  }
+
+  SqlSelect getSelect() {
+    return select;
+  }
+
+  /**
+   * @return the number of nodes of each kind
+   */
+  Map<SqlKind, Integer> getKindCounts() {
+    return kindCounts;
+  }
+
+  /**
+   * @return the number of nodes of the tree
+   */
+  int getNodeCount() {
+    return nodeCount;
+  }
+
+  int getCount(SqlKind kind) {
+    return kindCounts.getOrDefault(kind, 0);
+  }
+
+  /**
+   * @return the number of literals, ANDs and ORs
+   */
+  int getPredicateCount() {
+    return getCount(SqlKind.LITERAL) + getCount(SqlKind.AND) + getCount(SqlKind.OR);
+  }
+
+  /**
+   * @return the number of points in GBIF_WITHIN geometries
+   */
+  int getPointsCount() {
+    return pointsCount;
+  }
+
+  /**
+   * @return the first star in the select list, or null
+   */
+  SqlIdentifier getStarSelect() {
+    return starSelect;
+  }
+
+  /**
+   * @return the first expression of the select list needing an alias, or null
+   */
+  SqlBasicCall getUnaliasedSelect() {
+    return unaliasedSelect;
+  }
+
+  /**
+   * @return the first misuse of an operator found, or null
+   */
+  String getOperatorError() {
+    return operatorError;
+  }
+
+  /**
+   * @return the exception thrown reading the first invalid GBIF_WITHIN geometry, or null
+   */
+  RuntimeException getGeometryError() {
+    return geometryError;
+  }
+
+  /**
+   * Counts kinds, checks operators and reads geometries.
+   */
+  private static final class Visitor implements SqlVisitor<Void> {
+
+    private static final SqlKind[] KINDS = SqlKind.values();
+
+    // Number of nodes of each kind, indexed by ordinal, so counting doesn't allocate
+    private final int[] kindCounts = new int[KINDS.length];
+    private int pointsCount;
+    private String operatorError;
+    private RuntimeException geometryError;
+
+    // Whether we are inside a GBIF_WITHIN function.
+    private int within = 0;
+
+    private void count(SqlKind kind) {
+      kindCounts[kind.ordinal()]++;
+    }
+
+    /**
+     * @return the kinds found, with their counts
+     */
+    private Map<SqlKind, Integer> snapshotKindCounts() {
+      Map<SqlKind, Integer> counts = new EnumMap<>(SqlKind.class);
+      for (int i = 0; i < kindCounts.length; i++) {
+        if (kindCounts[i] > 0) {
+          counts.put(KINDS[i], kindCounts[i]);
+        }
+      }
+      return Collections.unmodifiableMap(counts);
+    }
+
+    @Override
+    public Void visit(SqlCall call) {
+      checkOperator(call);
+      boolean isWithin = call.getOperator().isName(GBIF_WITHIN, false);
+      if (isWithin) {
+        within++;
+      }
+      for (SqlNode n : call.getOperandList()) {
+        checkOperator(n);
+        if (n != null) {
+          n.accept(this);
+        }
+      }
+      if (isWithin) {
+        within--;
+      }
+      count(call.getKind());
+      return null;
+    }
+
+    private void checkOperator(SqlNode n) {
+      if (n == null || operatorError != null) {
+        return;
+      }
+      switch (n.getKind()) {
+        case CAST:
+          // Check this isn't something like "CAST('year' AS INTEGER)" which happens when the user
+          // does something like
+          // "'year' > 2000" and Calcite tries to fix it.
+          //
+          // This is handled specially because it's a common error for someone new to the SQL API.
+          SqlBasicCall castCall = (SqlBasicCall) n;
+          if (castCall.operandCount() == 2) {
+            SqlNode first = castCall.getOperandList().get(0);
+            SqlNode second = castCall.getOperandList().get(1);
+            if (first instanceof SqlLiteral
+                && MISTAKEN_AS_FIELDS.contains(((SqlLiteral) first).toValue())) {
+              if (second instanceof SqlDataTypeSpec
+                  && ((SqlDataTypeSpec) second).getTypeName().names.get(0).equals("INTEGER")) {
+                operatorError =
+                    "'year', 'month' or 'day' string literals used in a comparison. (Hint: use double quotes for \"year\", \"month\" and \"day\" columns.)";
+              }
+            }
+          }
+          break;
+
+        case BETWEEN:
+          // This gets changed into "BETWEEN ASYMMETRIC" by Calcite which Hive doesn't support.
+          // See https://issues.apache.org/jira/browse/CALCITE-4471 in case Calcite fix this.
+          operatorError =
+              "BETWEEN is not supported, please use comparison operators (<, <=, >=, >) instead.";
+          break;
+
+        default:
+      }
+    }
+
+    @Override
+    public Void visit(SqlNodeList nodeList) {
+      for (SqlNode n : nodeList.getList()) {
+        if (n != null) {
+          n.accept(this);
+        }
+      }
+      count(nodeList.getKind());
+      return null;
+    }
+
+    @Override
+    public Void visit(SqlLiteral literal) {
+      if (within > 0 && geometryError == null) {
+        try {
+          Geometry geometry = new WKTReader().read(literal.toValue());
+          pointsCount += geometry.getNumPoints();
+        } catch (ParseException e) {
+          geometryError = new RuntimeException(e);
+        } catch (RuntimeException e) {
+          geometryError = e;
+        }
+      }
+      count(literal.getKind());
+      return null;
+    }
+
+    @Override
+    public Void visit(SqlIdentifier id) {
+      count(id.getKind());
+      return null;
+    }
+
+    @Override
+    public Void visit(SqlDataTypeSpec type) {
+      count(type.getKind());
+      return null;
+    }
+
+    @Override
+    public Void visit(SqlDynamicParam param) {
+      count(param.getKind());
+      return null;
+    }
+
+    @Override
+    public Void visit(SqlIntervalQualifier intervalQualifier) {
+      count(intervalQualifier.getKind());
+      return null;
+    }
+
+    @Override
+    public Void visitNode(SqlNode n) {
+      return n.accept(this);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+/**
+ * Limits on the size of the SQL queries accepted by a {@link HiveSqlValidator}. They are checked by a quick scan of
+ * the text before it is parsed, so pathological queries are rejected before Calcite spends time and memory on them.
+ */
+public final class SqlQueryLimits {
+
+  /**
+   * No limits.
+   */
+  public static final SqlQueryLimits NONE =
+      new SqlQueryLimits(
+          Integer.MAX_VALUE,
+          Integer.MAX_VALUE,
+          Integer.MAX_VALUE,
+          Integer.MAX_VALUE,
+          Integer.MAX_VALUE,
+          Integer.MAX_VALUE);
+
+  /**
+   * Limits far above any reasonable query, used unless others are given.
+   */
+  public static final SqlQueryLimits DEFAULT = builder().build();
+
+  private final int maxBytes;
+  private final int maxTokens;
+  private final int maxLiterals;
+  private final int maxInListWidth;
+  private final int maxStringLength;
+  private final int maxNestingDepth;
+
+  private SqlQueryLimits(
+      int maxBytes,
+      int maxTokens,
+      int maxLiterals,
+      int maxInListWidth,
+      int maxStringLength,
+      int maxNestingDepth) {
+    this.maxBytes = maxBytes;
+    this.maxTokens = maxTokens;
+    this.maxLiterals = maxLiterals;
+    this.maxInListWidth = maxInListWidth;
+    this.maxStringLength = maxStringLength;
+    this.maxNestingDepth = maxNestingDepth;
+  }
+
+  /**
+   * @return a builder starting from the {@link #DEFAULT} limits
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  public int getMaxTokens() {
+    return maxTokens;
+  }
+
+  public int getMaxLiterals() {
+    return maxLiterals;
+  }
+
+  public int getMaxInListWidth() {
+    return maxInListWidth;
+  }
+
+  public int getMaxStringLength() {
+    return maxStringLength;
+  }
+
+  public int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  /**
+   * Checked first, so a huge query isn't even scanned.
+   *
+   * @return why the query is too large, or null
+   */
+  String getLengthError(String sql) {
+    // Each character is one to three bytes in UTF-8, so the bytes only need counting near the limit.
+    if (sql.length() > maxBytes
+        || ((long) sql.length() * 3 > maxBytes && utf8Length(sql) > maxBytes)) {
+      return "SQL queries can be at most " + maxBytes + " bytes long.";
+    }
+    return null;
+  }
+
+  /**
+   * @return why the scanned query is too large, or null
+   */
+  String getError(SqlPreprocessor prepared) {
+    if (prepared.getTokenCount() > maxTokens) {
+      return "SQL query has " + prepared.getTokenCount() + " tokens, the limit is " + maxTokens + ".";
+    }
+    if (prepared.getLiteralCount() > maxLiterals) {
+      return "SQL query has " + prepared.getLiteralCount() + " literals, the limit is " + maxLiterals + ".";
+    }
+    if (prepared.getMaxInListWidth() > maxInListWidth) {
+      return "SQL IN lists can have at most " + maxInListWidth + " values, one has "
+          + prepared.getMaxInListWidth() + ".";
+    }
+    if (prepared.getMaxStringLength() > maxStringLength) {
+      return "SQL strings, such as the WKT of a GBIF_Within geometry, can be at most " + maxStringLength
+          + " characters long.";
+    }
+    if (prepared.getMaxNestingDepth() > maxNestingDepth) {
+      return "SQL query nests parentheses " + prepared.getMaxNestingDepth() + " deep, the limit is "
+          + maxNestingDepth + ".";
+    }
+    return null;
+  }
+
+  private static long utf8Length(String s) {
+    long length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800 || Character.isSurrogate(c)) {
+        // A surrogate pair is four bytes
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  public static final class Builder {
+
+    private int maxBytes = 10 * 1024 * 1024;
+    private int maxTokens = 1_000_000;
+    private int maxLiterals = 500_000;
+    private int maxInListWidth = 100_000;
+    private int maxStringLength = 2_000_000;
+    private int maxNestingDepth = 200;
+
+    private Builder() {}
+
+    /**
+     * Maximum size of the query text, encoded as UTF-8.
+     */
+    public Builder maxBytes(int maxBytes) {
+      this.maxBytes = positive(maxBytes);
+      return this;
+    }
+
+    /**
+     * Maximum number of tokens, i.e. keywords, identifiers, literals, operators and punctuation.
+     */
+    public Builder maxTokens(int maxTokens) {
+      this.maxTokens = positive(maxTokens);
+      return this;
+    }
+
+    /**
+     * Maximum number of string and numeric literals.
+     */
+    public Builder maxLiterals(int maxLiterals) {
+      this.maxLiterals = positive(maxLiterals);
+      return this;
+    }
+
+    /**
+     * Maximum number of values in an {@code IN (…)} list.
+     */
+    public Builder maxInListWidth(int maxInListWidth) {
+      this.maxInListWidth = positive(maxInListWidth);
+      return this;
+    }
+
+    /**
+     * Maximum length of a string literal, which bounds the WKT of geometries.
+     */
+    public Builder maxStringLength(int maxStringLength) {
+      this.maxStringLength = positive(maxStringLength);
+      return this;
+    }
+
+    /**
+     * Maximum nesting of parentheses and brackets.
+     */
+    public Builder maxNestingDepth(int maxNestingDepth) {
+      this.maxNestingDepth = positive(maxNestingDepth);
+      return this;
+    }
+
+    public SqlQueryLimits build() {
+      return new SqlQueryLimits(
+          maxBytes, maxTokens, maxLiterals, maxInListWidth, maxStringLength, maxNestingDepth);
+    }
+
+    private static int positive(int limit) {
+      if (limit < 1) {
+        throw new IllegalArgumentException("Limits must be positive");
+      }
+      return limit;
+    }
+  }
+}
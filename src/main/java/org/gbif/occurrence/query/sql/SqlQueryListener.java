@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+/**
+ * Receives timings and sizes of each query handled by a {@link HiveSqlValidator}, and by the {@link HiveSqlQuery}s
+ * built with it, e.g. to publish them as metrics.
+ * <p>
+ * Only phases which complete are reported, so a query failing to parse reports {@link Phase#PREPARE} and nothing
+ * else, and renders are reported when a {@link HiveSqlQuery} first needs them. Methods are called on the thread doing
+ * the work, so implementations must be thread safe and quick.
+ */
+public interface SqlQueryListener {
+
+  /**
+   * Reports nothing.
+   */
+  SqlQueryListener NO_OP = new SqlQueryListener() {};
+
+  enum Phase {
+    /** Checking size limits, stripping trailing semicolons and rewriting lambda expressions, before parsing. */
+    PREPARE,
+    /** Parsing by Calcite. */
+    PARSE,
+    /** Validation by Calcite against the schema and operators. */
+    VALIDATE,
+    /** Our own checks and counts, see {@link SqlQueryAnalysis}. */
+    ANALYZE,
+    /** Qualifying the table with the catalog. */
+    CATALOG,
+    /** Rendering the SQL run by Hive. */
+    RENDER_SQL,
+    /** Rendering the formatted SQL shown to the user. */
+    RENDER_USER_SQL,
+    /** Rendering the WHERE clause. */
+    RENDER_WHERE
+  }
+
+  /**
+   * @param durationNanos time spent in the phase
+   */
+  default void phaseCompleted(Phase phase, long durationNanos) {}
+
+  /**
+   * Called once the validated query has been analysed, whether it is then accepted or rejected.
+   *
+   * @param nodeCount number of nodes of the syntax tree
+   * @param literalCount number of literals
+   * @param pointsCount number of points in GBIF_WITHIN geometries
+   */
+  default void queryAnalyzed(int nodeCount, int literalCount, int pointsCount) {}
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+  @Test
+  public void testHalvesOnDrops() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16);
+    assertEquals(16, limiter.getLimit());
+
+    limiter.acquire();
+    limiter.release(FAST, true);
+    assertEquals(8, limiter.getLimit());
+
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(FAST, true);
+    }
+    assertEquals(1, limiter.getLimit());
+    assertEquals(11, limiter.getDecreaseCount());
+  }
+
+  @Test
+  public void testBacksOffOnLatencyAndGrowsWhenSaturated() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4);
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(FAST, false);
+    }
+    assertEquals(0, limiter.getDecreaseCount());
+
+    // A sustained increase in latency lowers the limit, at most once per window of requests.
+    for (int i = 0; i < 4; i++) {
+      limiter.acquire();
+      limiter.release(SLOW, false);
+    }
+    assertEquals(1, limiter.getDecreaseCount());
+    assertEquals(3, limiter.getLimit());
+
+    // Fast requests using the whole limit grow it again, up to the maximum.
+    for (int i = 0; i < 100; i++) {
+      int limit = limiter.getLimit();
+      for (int j = 0; j < limit; j++) {
+        limiter.acquire();
+      }
+      for (int j = 0; j < limit; j++) {
+        limiter.release(FAST, false);
+      }
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void testBlocksAtLimit() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1);
+    limiter.acquire();
+
+    Thread waiter =
+        new Thread(
+            () -> {
+              try {
+                limiter.acquire();
+                limiter.release(FAST, false);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    waiter.start();
+    waiter.join(100);
+    assertTrue(waiter.isAlive());
+
+    limiter.release(FAST, false);
+    waiter.join(5_000);
+    assertFalse(waiter.isAlive());
+  }
+}
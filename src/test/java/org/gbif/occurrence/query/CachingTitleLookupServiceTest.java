@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class CachingTitleLookupServiceTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testMemoryCache() {
+    TitleLookupService delegate = mock(TitleLookupService.class);
+    when(delegate.getSpeciesName("1")).thenReturn("Animalia");
+    when(delegate.getSpeciesName("1", "checklist")).thenReturn("Animalia [Checklist]");
+    CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, Duration.ofHours(1));
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals("Animalia", service.getSpeciesName("1"));
+      assertEquals("Animalia [Checklist]", service.getSpeciesName("1", "checklist"));
+    }
+    verify(delegate, times(1)).getSpeciesName("1");
+    verify(delegate, times(1)).getSpeciesName("1", "checklist");
+    assertEquals(2, service.getMissCount());
+    assertEquals(4, service.getL1HitCount());
+  }
+
+  @Test
+  public void testFallbackNotCached() {
+    TitleLookupService delegate = mock(TitleLookupService.class);
+    when(delegate.getDatasetTitle("unknown")).thenReturn("unknown");
+    CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, Duration.ofHours(1));
+
+    assertEquals("unknown", service.getDatasetTitle("unknown"));
+    assertEquals("unknown", service.getDatasetTitle("unknown"));
+    verify(delegate, times(2)).getDatasetTitle("unknown");
+  }
+
+  @Test
+  public void testFileCacheSurvivesRestart() throws Exception {
+    Path cacheFile = tempDir.resolve("titles.cache");
+
+    TitleLookupService delegate = mock(TitleLookupService.class);
+    when(delegate.getDatasetTitle("d1")).thenReturn("Dataset one");
+    try (CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, Duration.ofHours(1), cacheFile)) {
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+    }
+
+    TitleLookupService restarted = mock(TitleLookupService.class);
+    try (CachingTitleLookupService service =
+        new CachingTitleLookupService(restarted, 100, Duration.ofHours(1), cacheFile)) {
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+      assertEquals(1, service.getL2HitCount());
+      assertEquals(1, service.getL1HitCount());
+    }
+    verifyNoInteractions(restarted);
+  }
+
+  @Test
+  public void testFileCacheKeepsValidators() throws Exception {
+    Path cacheFile = tempDir.resolve("titles.cache");
+
+    ConditionalTitleLookupService delegate = mock(ConditionalTitleLookupService.class);
+    when(delegate.getDatasetTitle("d1", null))
+        .thenReturn(new ValidatedTitle("Dataset one", "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT"));
+    try (CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, Duration.ofHours(1), cacheFile)) {
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+    }
+
+    try (PersistentTitleCache cache = PersistentTitleCache.open(cacheFile, Duration.ofHours(1))) {
+      ValidatedTitle title =
+          cache.getValidated(CachingTitleLookupService.datasetCacheKey("d1"));
+      assertEquals("Dataset one", title.getTitle());
+      assertEquals("\"v1\"", title.getEtag());
+      assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", title.getLastModified());
+    }
+  }
+
+  @Test
+  public void testRevalidatedTitleKeptInFile() throws Exception {
+    Path cacheFile = tempDir.resolve("titles.cache");
+    Duration ttl = Duration.ofSeconds(1);
+
+    ConditionalTitleLookupService delegate = mock(ConditionalTitleLookupService.class);
+    ValidatedTitle title = new ValidatedTitle("Dataset one", "\"v1\"", null);
+    when(delegate.getDatasetTitle("d1", null)).thenReturn(title);
+    when(delegate.getDatasetTitle("d1", title)).thenReturn(title);
+    try (CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, ttl, cacheFile)) {
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+      Thread.sleep(ttl.toMillis() + 100);
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+      assertEquals(1, service.getRevalidatedCount());
+    }
+
+    // The first record has expired, but the revalidated title was written again
+    try (PersistentTitleCache cache = PersistentTitleCache.open(cacheFile, ttl)) {
+      ValidatedTitle stored = cache.getValidated(CachingTitleLookupService.datasetCacheKey("d1"));
+      assertEquals("Dataset one", stored.getTitle());
+      assertEquals("\"v1\"", stored.getEtag());
+    }
+  }
+
+  @Test
+  public void testExpiredTitleRevalidated() {
+    ConditionalTitleLookupService delegate = mock(ConditionalTitleLookupService.class);
+    ValidatedTitle title = new ValidatedTitle("Dataset one", "\"v1\"", null);
+    when(delegate.getDatasetTitle("d1", null)).thenReturn(title);
+    when(delegate.getDatasetTitle("d1", title)).thenReturn(title);
+    // Every title expires right away
+    CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, Duration.ofNanos(1));
+
+    assertEquals("Dataset one", service.getDatasetTitle("d1"));
+    assertEquals("Dataset one", service.getDatasetTitle("d1"));
+    assertEquals(1, service.getMissCount());
+    assertEquals(1, service.getRevalidatedCount());
+
+    ValidatedTitle renamed = new ValidatedTitle("Dataset 1", "\"v2\"", null);
+    when(delegate.getDatasetTitle("d1", title)).thenReturn(renamed);
+    assertEquals("Dataset 1", service.getDatasetTitle("d1"));
+
+    // A failed revalidation serves the expired title
+    when(delegate.getDatasetTitle("d1", renamed)).thenReturn(null);
+    assertEquals("Dataset 1", service.getDatasetTitle("d1"));
+    assertEquals(1, service.getStaleCount());
+    assertEquals(1, service.getMissCount());
+    verify(delegate, never()).getDatasetTitle("d1");
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompositeTitleLookupServiceTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testPromotesToUpperTiers() throws Exception {
+    Path dump = tempDir.resolve("titles.tsv");
+    Files.write(
+        dump,
+        List.of("dataset\td1\tDataset one", "species\t1\tAnimalia"),
+        StandardCharsets.UTF_8);
+
+    MemoryTitleLookupTier memory = new MemoryTitleLookupTier(100, Duration.ofHours(1));
+    TitleLookupTier http = mock(TitleLookupTier.class);
+    when(http.findSpeciesName("2", null)).thenReturn("Plantae");
+    CompositeTitleLookupService service =
+        new CompositeTitleLookupService(
+            List.of(memory, SnapshotTitleLookupService.load(dump), http));
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+      assertEquals("Animalia", service.getSpeciesName("1"));
+      assertEquals("Plantae", service.getSpeciesName("2"));
+      assertEquals("3", service.getSpeciesName("3"));
+    }
+
+    assertEquals(6, service.getHitCount(0));
+    assertEquals(2, service.getHitCount(1));
+    assertEquals(1, service.getHitCount(2));
+    assertEquals(3, service.getMissCount());
+    assertEquals(3, memory.size());
+    verify(http, times(1)).findSpeciesName("2", null);
+    verify(http, times(3)).findSpeciesName("3", null);
+  }
+
+  @Test
+  public void testUnknownChecklistFallsThrough() throws Exception {
+    Path dump = tempDir.resolve("titles.tsv");
+    Files.write(
+        dump,
+        List.of("dataset\tc1\tChecklist one", "species\tc1/1\tAnimalia", "species\tc2/1\tAnimalia"),
+        StandardCharsets.UTF_8);
+
+    MemoryTitleLookupTier memory = new MemoryTitleLookupTier(100, Duration.ofHours(1));
+    TitleLookupTier http = mock(TitleLookupTier.class);
+    when(http.findSpeciesName("1", "c2")).thenReturn("Animalia [Checklist two]");
+    CompositeTitleLookupService service =
+        new CompositeTitleLookupService(
+            List.of(memory, SnapshotTitleLookupService.load(dump), http));
+
+    assertEquals("Animalia [Checklist one]", service.getSpeciesName("1", "c1"));
+    // The snapshot lacks the title of checklist c2, so it doesn't answer with the raw checklist key.
+    assertEquals("Animalia [Checklist two]", service.getSpeciesName("1", "c2"));
+    assertEquals("Animalia [Checklist two]", service.getSpeciesName("1", "c2"));
+    verify(http, times(1)).findSpeciesName("1", "c2");
+    assertEquals(1, service.getHitCount(2));
+  }
+
+  @Test
+  public void testFailingTierSkipped() {
+    TitleLookupTier broken = mock(TitleLookupTier.class);
+    when(broken.findDatasetTitle("d1")).thenThrow(new IllegalStateException("broken"));
+    TitleLookupTier fallback = mock(TitleLookupTier.class);
+    when(fallback.findDatasetTitle("d1")).thenReturn("Dataset one");
+
+    CompositeTitleLookupService service =
+        new CompositeTitleLookupService(List.of(broken, fallback));
+    assertEquals("Dataset one", service.getDatasetTitle("d1"));
+    verify(broken).storeDatasetTitle("d1", "Dataset one");
+  }
+
+  @Test
+  public void testFromProperties() throws Exception {
+    Path dump = tempDir.resolve("titles.tsv");
+    Files.write(dump, List.of("dataset\td1\tDataset one"), StandardCharsets.UTF_8);
+
+    Properties properties = new Properties();
+    properties.setProperty(TitleLookupServiceFactory.TIERS, "memory, cacheFile, snapshot");
+    properties.setProperty(TitleLookupServiceFactory.MEMORY_SIZE, "10");
+    properties.setProperty(
+        TitleLookupServiceFactory.CACHE_FILE, tempDir.resolve("titles.cache").toString());
+    properties.setProperty(TitleLookupServiceFactory.SNAPSHOT_FILE, dump.toString());
+
+    try (CompositeTitleLookupService service =
+        TitleLookupServiceFactory.fromProperties(properties)) {
+      assertEquals(3, service.getTiers().size());
+      assertTrue(service.getTiers().get(2) instanceof SnapshotTitleLookupService);
+      assertEquals("Dataset one", service.getDatasetTitle("d1"));
+      assertEquals("Dataset one", service.getTiers().get(1).findDatasetTitle("d1"));
+    }
+
+    properties.setProperty(TitleLookupServiceFactory.TIERS, "memory,http");
+    assertThrows(
+        IllegalArgumentException.class, () -> TitleLookupServiceFactory.fromProperties(properties));
+
+    // The API tier can share a throttle with other services
+    properties.setProperty(TitleLookupServiceFactory.API_URL, "http://localhost:1/v1/");
+    LookupThrottle throttle = new LookupThrottle(10, 2);
+    try (CompositeTitleLookupService service =
+        TitleLookupServiceFactory.fromProperties(properties, throttle)) {
+      assertSame(throttle, ((TitleLookupServiceImpl) service.getTiers().get(1)).getThrottle());
+    }
+  }
+}
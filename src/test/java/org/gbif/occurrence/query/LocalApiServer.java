@@ -0,0 +1,265 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the dataset and species match API, for tests and benchmarks of the lookups that must not depend
+ * on the network.
+ * <p>
+ * Responses are read from the {@code lookup-fixtures} test resources, {@code dataset/<key>.json} and
+ * {@code species/<usageKey>.json}, answering 404 for keys without a fixture, and 400 for keys starting with
+ * {@value #INVALID_KEY_PREFIX} as the API does for malformed keys. Optionally, responses are generated for
+ * any key instead, and latency, jitter and errors (503) are injected. Every response has an ETag, and conditional
+ * requests matching it are answered 304.
+ */
+public class LocalApiServer implements AutoCloseable {
+
+  private static final String FIXTURES = "lookup-fixtures/";
+  public static final String INVALID_KEY_PREFIX = "invalid";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private volatile long latencyNanos;
+  private volatile long jitterNanos;
+  private volatile double errorRate;
+  private volatile boolean generateMissing;
+
+  private final Map<String, byte[]> fixtures = new HashMap<>();
+
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder notModifiedCount = new LongAdder();
+  private final LongAdder errorCount = new LongAdder();
+
+  private LocalApiServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread t = new Thread(r, "local-api-server");
+              t.setDaemon(true);
+              return t;
+            });
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+  }
+
+  /**
+   * Starts a server on a free local port.
+   */
+  public static LocalApiServer start() {
+    try {
+      LocalApiServer server = new LocalApiServer();
+      server.server.start();
+      return server;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return the v1 API root to configure lookups with
+   */
+  public String getApiRoot() {
+    return "http://"
+        + server.getAddress().getHostString()
+        + ":"
+        + server.getAddress().getPort()
+        + "/v1/";
+  }
+
+  /**
+   * Delays every response by the latency, plus or minus a random jitter.
+   */
+  public LocalApiServer latency(Duration latency, Duration jitter) {
+    this.latencyNanos = latency.toNanos();
+    this.jitterNanos = jitter.toNanos();
+    return this;
+  }
+
+  /**
+   * Answers this ratio of requests with a 503 error.
+   */
+  public LocalApiServer errorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * Generates a title for keys without a fixture, instead of answering 404.
+   */
+  public LocalApiServer generateMissing(boolean generateMissing) {
+    this.generateMissing = generateMissing;
+    return this;
+  }
+
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  public long getNotModifiedCount() {
+    return notModifiedCount.sum();
+  }
+
+  public long getErrorCount() {
+    return errorCount.sum();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      requestCount.increment();
+      delay();
+
+      if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+        errorCount.increment();
+        exchange.sendResponseHeaders(503, -1);
+        return;
+      }
+
+      if (exchange.getRequestURI().getPath().contains("/" + INVALID_KEY_PREFIX)
+          || parseQuery(exchange.getRequestURI().getRawQuery())
+              .getOrDefault("usageKey", "")
+              .startsWith(INVALID_KEY_PREFIX)) {
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+
+      byte[] body =
+          respond(exchange.getRequestURI().getPath(), exchange.getRequestURI().getRawQuery());
+      if (body == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+
+      String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+      exchange.getResponseHeaders().add("ETag", etag);
+      if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModifiedCount.increment();
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  /**
+   * @return the response body for the path, or null if not found
+   */
+  private byte[] respond(String path, String query) {
+    // Both API versions are served alike.
+    String resource = path.replaceFirst("^/v[12]/", "");
+    Map<String, String> params = parseQuery(query);
+
+    if (resource.equals("dataset")) {
+      return "{\"offset\":0,\"limit\":0,\"endOfRecords\":true,\"count\":0,\"results\":[]}"
+          .getBytes(StandardCharsets.UTF_8);
+    }
+    if (resource.startsWith("dataset/")) {
+      String key = resource.substring("dataset/".length());
+      return fixture(
+          "dataset/" + key + ".json", "{\"key\":\"" + key + "\",\"title\":\"Dataset " + key + "\"}");
+    }
+    if (resource.equals("species/match") && params.containsKey("usageKey")) {
+      String key = params.get("usageKey");
+      return fixture(
+          "species/" + key + ".json",
+          "{\"usage\":{\"key\":\"" + key + "\",\"canonicalName\":\"Species " + key + "\"}}");
+    }
+    return null;
+  }
+
+  private byte[] fixture(String name, String generated) {
+    byte[] body;
+    synchronized (fixtures) {
+      body = fixtures.computeIfAbsent(name, LocalApiServer::readFixture);
+    }
+    if (body.length == 0) {
+      return generateMissing ? generated.getBytes(StandardCharsets.UTF_8) : null;
+    }
+    return body;
+  }
+
+  /**
+   * @return the fixture, or an empty array if there is none
+   */
+  private static byte[] readFixture(String name) {
+    try (InputStream in =
+        LocalApiServer.class.getClassLoader().getResourceAsStream(FIXTURES + name)) {
+      return in != null ? in.readAllBytes() : new byte[0];
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void delay() {
+    long delay = latencyNanos;
+    if (jitterNanos > 0) {
+      delay += ThreadLocalRandom.current().nextLong(-jitterNanos, jitterNanos + 1);
+    }
+    if (delay > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query != null) {
+      for (String param : query.split("&")) {
+        int eq = param.indexOf('=');
+        if (eq > 0) {
+          params.put(
+              URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+              URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return params;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LookupCircuitBreakerTest {
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    LookupCircuitBreaker breaker =
+        new LookupCircuitBreaker("test", 3, Duration.ofHours(1), () -> false);
+
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.isOpen());
+
+    breaker.recordFailure();
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.allowRequest());
+    assertFalse(breaker.allowRequest());
+    assertEquals(2, breaker.getShortCircuitCount());
+    assertEquals(1, breaker.getTripCount());
+  }
+
+  @Test
+  public void testClosesWhenProbeSucceeds() throws Exception {
+    LookupCircuitBreaker breaker =
+        new LookupCircuitBreaker("test", 1, Duration.ofMillis(10), () -> true);
+
+    breaker.recordFailure();
+    assertTrue(breaker.isOpen());
+
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (breaker.isOpen() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+  }
+}
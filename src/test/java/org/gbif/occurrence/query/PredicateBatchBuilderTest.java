@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import org.gbif.api.model.occurrence.search.OccurrenceSearchParameter;
+import org.gbif.api.model.predicate.EqualsPredicate;
+import org.gbif.api.model.predicate.NotPredicate;
+import org.gbif.api.model.predicate.Predicate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PredicateBatchBuilderTest {
+
+  private static List<Predicate> predicates() {
+    List<Predicate> predicates = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Predicate p =
+          new EqualsPredicate(OccurrenceSearchParameter.DATASET_KEY, "dataset-" + (i % 5), false);
+      predicates.add(i % 10 == 3 ? new NotPredicate(p) : p);
+    }
+    return predicates;
+  }
+
+  @Test
+  public void testQueryFilters() {
+    PredicateBatchBuilder batch = new PredicateBatchBuilder(mock(TitleLookupService.class), 4);
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+
+    List<Predicate> predicates = predicates();
+    List<PredicateBatchBuilder.Result<String>> results = batch.queryFilters(predicates);
+
+    assertEquals(predicates.size(), results.size());
+    for (int i = 0; i < predicates.size(); i++) {
+      PredicateBatchBuilder.Result<String> result = results.get(i);
+      if (i % 10 == 3) {
+        // NOT isn't supported in query filters
+        assertFalse(result.isSuccess());
+        assertNull(result.getValue());
+        assertTrue(result.getError() instanceof IllegalArgumentException);
+      } else {
+        assertTrue(result.isSuccess());
+        assertEquals(builder.queryFilter(predicates.get(i)), result.getValue());
+      }
+    }
+  }
+
+  @Test
+  public void testHumanFiltersShareLookups() {
+    TitleLookupService tl = mock(TitleLookupService.class);
+    when(tl.getDatasetTitle(ArgumentMatchers.any()))
+        .thenAnswer(invocation -> "Title of " + invocation.getArgument(0));
+    HumanPredicateBuilder builder = new HumanPredicateBuilder(tl);
+    PredicateBatchBuilder batch = new PredicateBatchBuilder(tl, 4);
+
+    List<Predicate> predicates = predicates();
+    List<String> expected = new ArrayList<>();
+    for (Predicate p : predicates) {
+      expected.add(builder.humanFilterString(p));
+    }
+
+    List<PredicateBatchBuilder.Result<String>> results = batch.humanFilterStrings(predicates);
+    for (int i = 0; i < predicates.size(); i++) {
+      assertTrue(results.get(i).isSuccess());
+      assertEquals(expected.get(i), results.get(i).getValue());
+    }
+
+    // 100 lookups by the single builder, then one per dataset by the batch
+    for (int i = 0; i < 5; i++) {
+      verify(tl, times(21)).getDatasetTitle("dataset-" + i);
+    }
+  }
+
+  @Test
+  public void testEmptyBatch() {
+    PredicateBatchBuilder batch = new PredicateBatchBuilder(mock(TitleLookupService.class), 4);
+    assertTrue(batch.queryFilters(new ArrayList<>()).isEmpty());
+    assertTrue(batch.humanFilters(new ArrayList<>()).isEmpty());
+  }
+
+  @Test
+  public void testCallerExecutor() {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    AtomicInteger tasks = new AtomicInteger();
+    try (PredicateBatchBuilder batch =
+        new PredicateBatchBuilder(
+            mock(TitleLookupService.class),
+            OccurrenceSearchParameter.class,
+            4,
+            task -> {
+              tasks.incrementAndGet();
+              executor.execute(task);
+            })) {
+      assertEquals(100, batch.queryFilters(predicates()).size());
+      assertEquals(100, batch.queryFilters(predicates()).size());
+    }
+    // Three helpers per batch, the calling thread being the fourth, and the executor is left running
+    assertEquals(6, tasks.get());
+    assertFalse(executor.isShutdown());
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import org.gbif.api.model.occurrence.search.OccurrenceSearchParameter;
+import org.gbif.api.model.predicate.ConjunctionPredicate;
+import org.gbif.api.model.predicate.GreaterThanOrEqualsPredicate;
+import org.gbif.api.model.predicate.InPredicate;
+import org.gbif.api.model.predicate.LessThanOrEqualsPredicate;
+import org.gbif.api.model.predicate.Predicate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Throughput of a single {@link QueryParameterFilterBuilder} shared by an increasing number of threads.
+ * Run with {@code mvn test -Dtest=QueryParameterFilterBuilderBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class QueryParameterFilterBuilderBenchmark {
+
+  private static final int CALLS_PER_THREAD = 20_000;
+
+  @Test
+  public void sharedBuilderThroughput() throws Exception {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+
+    List<String> taxonKeys = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      taxonKeys.add(String.valueOf(1000 + i));
+    }
+    List<Predicate> predicates =
+        List.of(
+            new InPredicate(OccurrenceSearchParameter.TAXON_KEY, taxonKeys, false),
+            new ConjunctionPredicate(
+                List.of(
+                    new GreaterThanOrEqualsPredicate(OccurrenceSearchParameter.YEAR, "1900"),
+                    new LessThanOrEqualsPredicate(OccurrenceSearchParameter.YEAR, "2000"))));
+
+    // Warm up
+    run(builder, predicates, 4);
+
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      long elapsed = run(builder, predicates, threads);
+      System.out.printf(
+          "%d threads: %.0f links/s%n",
+          threads, (double) threads * CALLS_PER_THREAD / (elapsed / 1e9));
+    }
+  }
+
+  private static long run(
+      QueryParameterFilterBuilder builder, List<Predicate> predicates, int threads)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                  builder.queryFilter(predicates.get(i % predicates.size()));
+                }
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    executor.shutdown();
+    return elapsed;
+  }
+}
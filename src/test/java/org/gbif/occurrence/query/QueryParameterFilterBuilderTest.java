@@ -29,6 +29,9 @@ import org.gbif.api.vocabulary.Country;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.Test;
 
@@ -58,6 +61,13 @@ public class QueryParameterFilterBuilderTest {
     assertEquals("YEAR=2000&YEAR=2001&YEAR=2002", query);
   }
 
+  @Test
+  public void testSubclass() {
+    Predicate p = new EqualsPredicate(OccurrenceSearchParameter.YEAR, "2000", false);
+    assertEquals("YEAR=2000", new QueryParameterFilterBuilder() {}.queryFilter(p));
+    assertEquals("YEAR=2000", new QueryParameterFilterBuilder().queryFilter(p));
+  }
+
   @Test
   public void testNot() {
     QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
@@ -91,6 +101,44 @@ public class QueryParameterFilterBuilderTest {
     assertEquals("GEOMETRY=30+10%2C10+20%2C20+40%2C40+40%2C30+10", query);
   }
 
+  @Test
+  public void testPolygonWhitespace() {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+    assertEquals(
+        "GEOMETRY=30+10%2C+10+20%2C+30+10",
+        builder.queryFilter(new WithinPredicate("polygon ( (30 10, 10 20, 30 10) ) ")));
+  }
+
+  @Test
+  public void testPolygonWithHole() {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+    String wkt = "POLYGON ((0 0,10 0,10 10,0 0), (1 1,2 1,2 2,1 1))";
+    assertEquals(
+        "GEOMETRY=POLYGON%28%280+0%2C10+0%2C10+10%2C0+0%29%2C%281+1%2C2+1%2C2+2%2C1+1%29%29",
+        builder.queryFilter(new WithinPredicate(wkt)));
+  }
+
+  @Test
+  public void testMultiPolygon() {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+    String wkt = "MULTIPOLYGON (((1 1,2 2,1 1)), ((3 3,4 4,3 3)))";
+    assertEquals(
+        "GEOMETRY=1+1%2C2+2%2C1+1&GEOMETRY=3+3%2C4+4%2C3+3",
+        builder.queryFilter(new WithinPredicate(wkt)));
+  }
+
+  @Test
+  public void testInvalidPolygon() {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+    for (String wkt :
+        new String[] {
+          "POINT (1 1)", "POLYGON ((1 1,2 2)", "POLYGON (())", "MULTIPOLYGON (((1 1,2 2,1 1))"
+        }) {
+      assertThrows(
+          IllegalArgumentException.class, () -> builder.queryFilter(new WithinPredicate(wkt)));
+    }
+  }
+
   @Test
   public void testRange() {
     QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
@@ -111,4 +159,57 @@ public class QueryParameterFilterBuilderTest {
         builder.queryFilter(new IsNotNullPredicate(OccurrenceSearchParameter.MEDIA_TYPE));
     assertEquals("MEDIA_TYPE=*", query);
   }
+
+  @Test
+  public void testSharedBetweenThreads() throws Exception {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+
+    List<Predicate> predicates = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      List<Predicate> ors = new ArrayList<>();
+      for (int year = 1900; year < 1900 + i; year++) {
+        ors.add(new EqualsPredicate(OccurrenceSearchParameter.YEAR, String.valueOf(year), false));
+      }
+      ors.add(new EqualsPredicate(OccurrenceSearchParameter.YEAR, "2000", false));
+      predicates.add(new DisjunctionPredicate(ors));
+      expected.add(builder.queryFilter(predicates.get(i)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        Predicate p = predicates.get(i % predicates.size());
+        results.add(executor.submit(() -> builder.queryFilter(p)));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(expected.get(i % predicates.size()), results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testParameterOrderAndAppendable() throws Exception {
+    QueryParameterFilterBuilder builder = new QueryParameterFilterBuilder();
+
+    List<Predicate> months = new ArrayList<>();
+    months.add(new EqualsPredicate(OccurrenceSearchParameter.MONTH, "1", false));
+    months.add(new EqualsPredicate(OccurrenceSearchParameter.MONTH, "2", false));
+    List<Predicate> and = new ArrayList<>();
+    and.add(new EqualsPredicate(OccurrenceSearchParameter.YEAR, "2000", false));
+    and.add(new DisjunctionPredicate(months));
+    and.add(new EqualsPredicate(OccurrenceSearchParameter.COUNTRY, "DK", false));
+    and.add(new EqualsPredicate(OccurrenceSearchParameter.YEAR, "2001", false));
+    Predicate p = new ConjunctionPredicate(and);
+
+    String expected = "YEAR=2000&YEAR=2001&MONTH=1&MONTH=2&COUNTRY=DK";
+    assertEquals(expected, builder.queryFilter(p));
+
+    StringBuilder out = new StringBuilder("https://www.gbif.org/occurrence/search?");
+    builder.queryFilter(p, out);
+    assertEquals("https://www.gbif.org/occurrence/search?" + expected, out.toString());
+  }
 }
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QueryStringEncoderTest {
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "2000",
+        "Abies alba Mill.",
+        "30 10,10 20,20 40",
+        "a&b=c?d#e/f+g%h",
+        "~!'()*-._",
+        "Lötschental",
+        "北京",
+        "😀 emoji",
+        "unpaired \uD800 high",
+        "unpaired \uDC00 low",
+        "trailing \uD800"
+      })
+  public void testSameAsUrlEncoder(String value) throws Exception {
+    assertEquals(URLEncoder.encode(value, StandardCharsets.UTF_8), encode(value));
+  }
+
+  @Test
+  public void testRandomSameAsUrlEncoder() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      char[] chars = new char[random.nextInt(20)];
+      for (int j = 0; j < chars.length; j++) {
+        // Mostly ASCII, some of everything else including surrogates
+        chars[j] = (char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(0x10000));
+      }
+      String value = new String(chars);
+      assertEquals(URLEncoder.encode(value, StandardCharsets.UTF_8), encode(value));
+    }
+  }
+
+  private static String encode(String value) throws Exception {
+    StringBuilder b = new StringBuilder();
+    QueryStringEncoder.encode(value, b);
+    return b.toString();
+  }
+}
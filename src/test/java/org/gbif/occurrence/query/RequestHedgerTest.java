@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RequestHedgerTest {
+
+  @Test
+  public void testHedgeDelayIsLatencyPercentile() {
+    RequestHedger hedger = new RequestHedger(90, 0.1);
+    for (int i = 1; i <= 99; i++) {
+      hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    // Too few samples yet
+    assertEquals(-1, hedger.getHedgeDelayNanos());
+
+    for (int i = 100; i <= 128; i++) {
+      hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    // 90th percentile of 1..128ms
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(116), hedger.getHedgeDelayNanos());
+  }
+
+  @Test
+  public void testHedgeRateIsCapped() {
+    RequestHedger hedger = new RequestHedger(95, 0.05);
+    int hedges = 0;
+    for (int i = 0; i < 1000; i++) {
+      hedger.recordRequest();
+      if (hedger.canHedge()) {
+        hedger.recordHedge();
+        hedges++;
+      }
+    }
+    assertEquals(50, hedges);
+    assertEquals(50, hedger.getHedgeCount());
+    assertFalse(hedger.canHedge());
+
+    for (int i = 0; i < 20; i++) {
+      hedger.recordRequest();
+    }
+    assertTrue(hedger.canHedge());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testLosingRequestReleasesThrottle() {
+    HttpResponse<byte[]> response = mock(HttpResponse.class);
+    when(response.statusCode()).thenReturn(200);
+    when(response.headers()).thenReturn(HttpHeaders.of(Map.of(), (name, value) -> true));
+    when(response.body()).thenReturn("{\"title\":\"Dataset\"}".getBytes(StandardCharsets.UTF_8));
+
+    // Enough answered requests for the hedging delay to be known, then one that never answers
+    CompletableFuture<HttpResponse<byte[]>> stuck = new CompletableFuture<>();
+    AtomicInteger requests = new AtomicInteger();
+    HttpClient client = mock(HttpClient.class);
+    when(client.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenAnswer(
+            invocation ->
+                requests.incrementAndGet() == 129
+                    ? stuck
+                    : CompletableFuture.completedFuture(response));
+
+    LookupThrottle throttle = new LookupThrottle(1_000_000, 64);
+    TitleLookupServiceImpl service =
+        new TitleLookupServiceImpl(
+            "http://localhost/v1/", client, Duration.ofSeconds(1), throttle, 50, 1);
+    for (int i = 0; i < 128; i++) {
+      assertEquals("Dataset", service.getDatasetTitle("d" + i));
+    }
+    assertEquals("Dataset", service.getDatasetTitle("stuck"));
+
+    assertEquals(1, service.getHedgeWinCount());
+    assertTrue(stuck.isCancelled());
+    // The stuck request gave its slot back
+    for (int i = 0; i < throttle.getConcurrencyLimit(); i++) {
+      assertTrue(throttle.tryAcquire());
+    }
+  }
+}
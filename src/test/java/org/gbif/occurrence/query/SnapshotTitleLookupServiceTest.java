@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SnapshotTitleLookupServiceTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testLookups() throws Exception {
+    Path dump = tempDir.resolve("titles.tsv");
+    Files.write(
+        dump,
+        List.of(
+            "# Test snapshot",
+            "species\t2\tArchaea",
+            "dataset\t7abad3fc-068a-4f34-8b3d-bfe03155ccde\tFBIP: Magnoliophyta collection",
+            "species\t1\tAnimalia",
+            "",
+            "dataset\t7ddf754f-d193-4cc9-b351-99906754a03b\tCatalogue of Life",
+            "species\t7ddf754f-d193-4cc9-b351-99906754a03b/6\tPlantae",
+            "species\t0\tincertae sedis"),
+        StandardCharsets.UTF_8);
+
+    SnapshotTitleLookupService service = SnapshotTitleLookupService.load(dump);
+    assertEquals(2, service.getDatasetCount());
+    assertEquals(4, service.getSpeciesCount());
+
+    assertEquals(
+        "FBIP: Magnoliophyta collection",
+        service.getDatasetTitle("7abad3fc-068a-4f34-8b3d-bfe03155ccde"));
+    assertEquals("incertae sedis", service.getSpeciesName("0"));
+    assertEquals("Animalia", service.getSpeciesName("1"));
+    assertEquals("Archaea", service.getSpeciesName("2"));
+    assertEquals(
+        "Plantae [Catalogue of Life]",
+        service.getSpeciesName("6", "7ddf754f-d193-4cc9-b351-99906754a03b"));
+
+    // Missing keys fall back to the key
+    assertEquals("3", service.getSpeciesName("3"));
+    assertEquals("3", service.getSpeciesName("3", "7ddf754f-d193-4cc9-b351-99906754a03b"));
+    assertEquals("unknown", service.getDatasetTitle("unknown"));
+  }
+
+  @Test
+  public void testUnsortedDump() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      lines.add("species\t" + i + "\tName " + i + " Ü");
+    }
+    Collections.shuffle(lines);
+    Path dump = tempDir.resolve("unsorted.tsv");
+    Files.write(dump, lines, StandardCharsets.UTF_8);
+
+    SnapshotTitleLookupService service = SnapshotTitleLookupService.load(dump);
+    for (int i = 0; i < 10_000; i++) {
+      assertEquals("Name " + i + " Ü", service.getSpeciesName(String.valueOf(i)));
+    }
+  }
+
+  @Test
+  public void testInvalidLine() throws Exception {
+    Path dump = tempDir.resolve("invalid.tsv");
+    Files.write(dump, List.of("taxon\t1\tAnimalia"), StandardCharsets.UTF_8);
+    assertThrows(IllegalArgumentException.class, () -> SnapshotTitleLookupService.load(dump));
+  }
+}
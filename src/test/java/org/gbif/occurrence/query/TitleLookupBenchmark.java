@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import org.gbif.api.model.occurrence.search.OccurrenceSearchParameter;
+import org.gbif.api.model.predicate.InPredicate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Reproducible benchmarks of the lookup and human filter paths, against a {@link LocalApiServer} with injected
+ * latency, jitter and errors. Run with {@code mvn test -Dtest=TitleLookupBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class TitleLookupBenchmark {
+
+  private static final int KEYS = 2_000;
+  private static final int THREADS = 32;
+
+  private static LocalApiServer server;
+
+  @BeforeAll
+  public static void startServer() {
+    server =
+        LocalApiServer.start()
+            .latency(Duration.ofMillis(20), Duration.ofMillis(10))
+            .errorRate(0.01)
+            .generateMissing(true);
+  }
+
+  @AfterAll
+  public static void stopServer() {
+    server.close();
+  }
+
+  @Test
+  public void concurrentLookups() throws Exception {
+    // A high rate limit, so the concurrency limit and the latency are measured rather than the rate.
+    TitleLookupServiceImpl service =
+        new TitleLookupServiceImpl(
+            server.getApiRoot(), Duration.ofSeconds(5), Duration.ofSeconds(30), THREADS, 10_000);
+    long[] latencies = new long[KEYS];
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < KEYS; i++) {
+      int key = i;
+      futures.add(
+          executor.submit(
+              () -> {
+                long lookupStart = System.nanoTime();
+                service.getSpeciesName(String.valueOf(1000 + key));
+                latencies[key] = System.nanoTime() - lookupStart;
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    executor.shutdown();
+
+    Arrays.sort(latencies);
+    System.out.printf(
+        "%d lookups on %d threads: %.0f/s, p50 %dms, p99 %dms, %d failed, concurrency limit %d%n",
+        KEYS,
+        THREADS,
+        KEYS / (elapsed / 1e9),
+        TimeUnit.NANOSECONDS.toMillis(latencies[KEYS / 2]),
+        TimeUnit.NANOSECONDS.toMillis(latencies[KEYS * 99 / 100]),
+        service.getFailureCount(),
+        service.getConcurrencyLimit());
+  }
+
+  @Test
+  public void humanFilterOfLargeInPredicate() {
+    List<String> taxonKeys = new ArrayList<>();
+    for (int i = 0; i < KEYS; i++) {
+      taxonKeys.add(String.valueOf(5000 + i));
+    }
+    InPredicate predicate = new InPredicate(OccurrenceSearchParameter.TAXON_KEY, taxonKeys, false);
+    HumanPredicateBuilder builder =
+        new HumanPredicateBuilder(
+            TitleLookupServiceFactory.builder(server.getApiRoot()).build());
+
+    for (String run : List.of("cold", "warm")) {
+      long start = System.nanoTime();
+      String filter = builder.humanFilterString(predicate);
+      System.out.printf(
+          "Human filter of %d taxon keys, %s: %dms, %d characters%n",
+          KEYS,
+          run,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          filter.length());
+    }
+  }
+}
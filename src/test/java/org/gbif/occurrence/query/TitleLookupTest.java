@@ -13,16 +13,36 @@
  */
 package org.gbif.occurrence.query;
 
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+/**
+ * Lookups against a {@link LocalApiServer} serving recorded API responses.
+ */
 public class TitleLookupTest {
 
+  private static LocalApiServer server;
+
+  @BeforeAll
+  public static void startServer() {
+    server = LocalApiServer.start();
+  }
+
+  @AfterAll
+  public static void stopServer() {
+    server.close();
+  }
+
   @Test
   public void lookupDatasetTitleTest() {
-    TitleLookupService service =
-        TitleLookupServiceFactory.getInstance("http://api.gbif-uat.org/v1/");
+    TitleLookupService service = TitleLookupServiceFactory.getInstance(server.getApiRoot());
 
     assertEquals(
         "FBIP: Identification of viruses infecting indigenous ornamental bulbous plants in South Africa using NGS",
@@ -37,11 +57,127 @@ public class TitleLookupTest {
 
   @Test
   public void lookupSpeciesNameTest() {
-    TitleLookupService service =
-        TitleLookupServiceFactory.getInstance("http://api.gbif-uat.org/v1/");
+    TitleLookupService service = TitleLookupServiceFactory.getInstance(server.getApiRoot());
 
     assertEquals("incertae sedis", service.getSpeciesName("0"));
     assertEquals("Animalia", service.getSpeciesName("1"));
     assertEquals("Archaea", service.getSpeciesName("2"));
   }
+
+  @Test
+  public void lookupChecklistSpeciesNameTest() {
+    TitleLookupService service = new TitleLookupServiceImpl(server.getApiRoot());
+
+    assertEquals(
+        "Animalia [FBIP: Magnoliophyta collection]",
+        service.getSpeciesName("1", "7abad3fc-068a-4f34-8b3d-bfe03155ccde"));
+  }
+
+  @Test
+  public void lookupNotFoundTest() {
+    TitleLookupServiceImpl service = new TitleLookupServiceImpl(server.getApiRoot());
+
+    assertEquals("unknown", service.getDatasetTitle("unknown"));
+    assertEquals("999999999", service.getSpeciesName("999999999"));
+    assertEquals(2, service.getNotFoundCount());
+    assertEquals(0, service.getFailureCount());
+  }
+
+  @Test
+  public void lookupInvalidKeyTest() {
+    TitleLookupServiceImpl service = new TitleLookupServiceImpl(server.getApiRoot());
+
+    assertEquals("not a key", service.getDatasetTitle("not a key"));
+    assertEquals("not a key", service.getDatasetTitle("not a key"));
+    assertEquals(1, service.getFailureCount());
+    assertEquals(1, service.getNegativeCacheHitCount());
+    assertFalse(service.isCircuitOpen());
+  }
+
+  @Test
+  public void lookupClientErrorTest() {
+    TitleLookupServiceImpl service = new TitleLookupServiceImpl(server.getApiRoot());
+
+    // More rejected keys than the circuit breaker tolerates failures
+    for (int i = 0; i < 10; i++) {
+      String key = LocalApiServer.INVALID_KEY_PREFIX + i;
+      assertEquals(key, service.getDatasetTitle(key));
+      assertEquals(key, service.getDatasetTitle(key));
+    }
+    assertEquals(10, service.getFailureCount());
+    assertEquals(10, service.getNegativeCacheHitCount());
+    assertFalse(service.isCircuitOpen());
+    assertEquals(
+        "FBIP: Magnoliophyta collection",
+        service.getDatasetTitle("7abad3fc-068a-4f34-8b3d-bfe03155ccde"));
+  }
+
+  @Test
+  public void builderLimitsTest() {
+    // Services built for the same host keep their own limits
+    TitleLookupServiceImpl first =
+        (TitleLookupServiceImpl)
+            TitleLookupServiceFactory.builder(server.getApiRoot())
+                .cacheSize(0)
+                .maxConcurrentRequests(2)
+                .build();
+    TitleLookupServiceImpl second =
+        (TitleLookupServiceImpl)
+            TitleLookupServiceFactory.builder(server.getApiRoot())
+                .cacheSize(0)
+                .maxConcurrentRequests(8)
+                .build();
+    assertEquals(2, first.getConcurrencyLimit());
+    assertEquals(8, second.getConcurrencyLimit());
+  }
+
+  @Test
+  public void sharedThrottleTest() {
+    // Services given the same throttle share its limits
+    LookupThrottle throttle = new LookupThrottle(10, 2);
+    TitleLookupServiceImpl first =
+        (TitleLookupServiceImpl)
+            TitleLookupServiceFactory.builder(server.getApiRoot())
+                .cacheSize(0)
+                .throttle(throttle)
+                .build();
+    TitleLookupServiceImpl second =
+        (TitleLookupServiceImpl)
+            TitleLookupServiceFactory.builder(server.getApiRoot())
+                .cacheSize(0)
+                .maxConcurrentRequests(8)
+                .throttle(throttle)
+                .build();
+    assertSame(throttle, first.getThrottle());
+    assertSame(throttle, second.getThrottle());
+    assertEquals(2, second.getConcurrencyLimit());
+
+    // Services with default limits share one throttle per API root
+    assertSame(
+        new TitleLookupServiceImpl(server.getApiRoot()).getThrottle(),
+        new TitleLookupServiceImpl(server.getApiRoot()).getThrottle());
+  }
+
+  @Test
+  public void revalidateTest() {
+    TitleLookupServiceImpl service = new TitleLookupServiceImpl(server.getApiRoot());
+
+    ValidatedTitle title = service.getDatasetTitle("7abad3fc-068a-4f34-8b3d-bfe03155ccde", null);
+    assertEquals("FBIP: Magnoliophyta collection", title.getTitle());
+    assertSame(title, service.getDatasetTitle("7abad3fc-068a-4f34-8b3d-bfe03155ccde", title));
+    assertEquals(1, service.getNotModifiedCount());
+  }
+
+  @Test
+  public void lookupFailureTest() {
+    try (LocalApiServer failing = LocalApiServer.start().errorRate(1)) {
+      TitleLookupServiceImpl service =
+          new TitleLookupServiceImpl(
+              failing.getApiRoot(), Duration.ofSeconds(1), Duration.ofSeconds(1), 4);
+
+      assertEquals("1", service.getSpeciesName("1"));
+      assertEquals(1, service.getFailureCount());
+      assertEquals(1, service.getThrottledCount());
+    }
+  }
 }
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TitleLookupWarmerTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testWarmUpFromPreviousRun() throws Exception {
+    Path hotKeys = tempDir.resolve("hot-keys.txt");
+
+    TitleLookupService delegate = mock(TitleLookupService.class);
+    when(delegate.getDatasetTitle(anyString())).thenAnswer(i -> "Title " + i.getArgument(0));
+    when(delegate.getSpeciesName(anyString())).thenAnswer(i -> "Name " + i.getArgument(0));
+    when(delegate.getSpeciesName(anyString(), anyString()))
+        .thenAnswer(i -> "Name " + i.getArgument(0) + " [" + i.getArgument(1) + "]");
+
+    CachingTitleLookupService previousRun =
+        new CachingTitleLookupService(delegate, 100, Duration.ofHours(1));
+    previousRun.getSpeciesName("1");
+    previousRun.getSpeciesName("1");
+    previousRun.getSpeciesName("2", "checklist");
+    previousRun.getDatasetTitle("d1");
+    previousRun.getDatasetTitle("d1");
+    previousRun.getDatasetTitle("d1");
+    previousRun.saveHotKeys(hotKeys, 2);
+
+    assertEquals(
+        List.of("dataset\td1", "species\t1"), TitleLookupWarmer.readHotKeys(hotKeys));
+
+    CachingTitleLookupService service =
+        new CachingTitleLookupService(delegate, 100, Duration.ofHours(1));
+    int warmed =
+        new TitleLookupWarmer(service, 1000, 2).warmUp(hotKeys).get(10, TimeUnit.SECONDS);
+    assertEquals(2, warmed);
+    assertEquals(2, service.getMissCount());
+
+    assertEquals("Title d1", service.getDatasetTitle("d1"));
+    assertEquals("Name 1", service.getSpeciesName("1"));
+    assertEquals(2, service.getL1HitCount());
+  }
+
+  @Test
+  public void testChecklistKeys() throws Exception {
+    TitleLookupService service = mock(TitleLookupService.class);
+    new TitleLookupWarmer(service, 1000, 1)
+        .warmUp(List.of("species\tchecklist/6", "unknown\tx", "invalid"))
+        .get(10, TimeUnit.SECONDS);
+    verify(service).getSpeciesName("6", "checklist");
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+import org.gbif.api.exception.QueryBuildingException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class HiveSqlQueryCacheTest {
+
+  private static final String TEST_CATALOG = "cattest";
+
+  @Test
+  public void testNormalize() {
+    assertEquals(
+        "SELECT a FROM occurrence",
+        HiveSqlQueryCache.normalize("  SELECT  a -- the column\n FROM\t/* the table */occurrence  "));
+    // Literals, quoted identifiers and hints are kept as they are
+    assertEquals(
+        "SELECT 'a  b', \"c  d\" FROM x WHERE y = 'it''s  -- no comment'",
+        HiveSqlQueryCache.normalize(
+            "SELECT  'a  b',  \"c  d\" FROM x WHERE y = 'it''s  -- no comment'"));
+    assertEquals(
+        "SELECT /*+ hint */ a FROM x", HiveSqlQueryCache.normalize("SELECT /*+ hint */ a FROM x"));
+    assertNotEquals(
+        HiveSqlQueryCache.normalize("SELECT a FROM x"),
+        HiveSqlQueryCache.normalize("SELECT a FROM x /* unterminated"));
+  }
+
+  @Test
+  public void testCachedQueries() throws Exception {
+    HiveSqlValidator validator =
+        spy(SqlValidatorTestUtil.createOccurrenceTableValidator(TEST_CATALOG));
+    HiveSqlQueryCache cache = new HiveSqlQueryCache(validator, 100);
+
+    HiveSqlQuery q = cache.get("SELECT \"year\" FROM occurrence WHERE \"year\" > 2000");
+    assertSame(q, cache.get("SELECT \"year\"\nFROM occurrence -- recent\nWHERE \"year\" > 2000"));
+    assertEquals("SELECT year\nFROM occurrence\nWHERE occurrence.year > 2000", q.getSql());
+
+    // Another catalog is another query
+    HiveSqlQuery inCatalog =
+        cache.get("SELECT \"year\" FROM occurrence WHERE \"year\" > 2000", TEST_CATALOG);
+    assertNotSame(q, inCatalog);
+    assertTrue(inCatalog.getSql().contains("FROM cattest.occurrence"));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1.0 / 3, cache.getHitRatio(), 0.0001);
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testCachedErrors() throws Exception {
+    HiveSqlValidator validator =
+        spy(SqlValidatorTestUtil.createOccurrenceTableValidator(TEST_CATALOG));
+    HiveSqlQueryCache cache = new HiveSqlQueryCache(validator, 100);
+
+    QueryBuildingException first =
+        assertThrows(QueryBuildingException.class, () -> cache.get("SELECT * FROM occurrence"));
+    QueryBuildingException second =
+        assertThrows(QueryBuildingException.class, () -> cache.get("SELECT *  FROM  occurrence"));
+    assertEquals(first.getMessage(), second.getMessage());
+
+    verify(validator, times(1)).validateAndAnalyze(anyString(), any());
+  }
+
+  @Test
+  public void testLongQueriesWeighMore() throws Exception {
+    HiveSqlQueryCache cache =
+        new HiveSqlQueryCache(SqlValidatorTestUtil.createOccurrenceTableValidator(TEST_CATALOG), 100);
+    String name = "x".repeat(200 * HiveSqlQueryCache.WEIGHT_UNIT_CHARS);
+    // Invalid queries are cached alike
+    assertThrows(
+        QueryBuildingException.class,
+        () -> cache.get("SELECT * FROM occurrence WHERE datasetkey = '" + name + "'"));
+    cache.get("SELECT \"year\" FROM occurrence");
+
+    // Heavier than the whole cache, unlike a short query
+    assertEquals(1, cache.size());
+    assertEquals(1, HiveSqlQueryCache.weight("SELECT \"year\" FROM occurrence"));
+  }
+}
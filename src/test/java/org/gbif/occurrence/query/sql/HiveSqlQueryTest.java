@@ -13,9 +13,12 @@
  */
 package org.gbif.occurrence.query.sql;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -74,6 +77,52 @@ public class HiveSqlQueryTest {
     assertEquals("SELECT year\nFROM cattest.occurrence", q.getSql());
   }
 
+  @Test
+  public void testSqlWithManyCatalogs() throws Exception {
+    for (String catalog : Arrays.asList("cattest", "iceberg", "Hive", "cattest")) {
+      HiveSqlQuery q =
+          new HiveSqlQuery(hiveSqlValidator, "SELECT \"year\" FROM occurrence", catalog);
+      assertEquals(
+          "SELECT year\nFROM " + catalog.toLowerCase(Locale.ROOT) + ".occurrence", q.getSql());
+    }
+  }
+
+  @Test
+  public void testRenderedOnce() throws Exception {
+    List<SqlQueryListener.Phase> phases = new ArrayList<>();
+    HiveSqlValidator validator =
+        SqlValidatorTestUtil.createOccurrenceTableValidator(
+            "cattest",
+            new SqlQueryListener() {
+              @Override
+              public void phaseCompleted(Phase phase, long durationNanos) {
+                phases.add(phase);
+              }
+            });
+    HiveSqlQuery q =
+        new HiveSqlQuery(validator, "SELECT gbifid FROM occurrence WHERE \"year\" > 2000");
+
+    // Rendered when first requested, and only once
+    phases.clear();
+    q.getSql();
+    q.getUserSql();
+    q.getSqlWhere();
+    q.getSql();
+    assertEquals(
+        Arrays.asList(
+            SqlQueryListener.Phase.RENDER_SQL,
+            SqlQueryListener.Phase.RENDER_USER_SQL,
+            SqlQueryListener.Phase.RENDER_WHERE),
+        phases);
+
+    // Once everything is rendered the parsed query is released, the strings staying available
+    String sql = q.getSql();
+    assertEquals(Collections.singletonList("gbifid"), q.getSqlSelectColumnNames());
+    assertEquals(sql, q.getSql());
+    assertEquals("occurrence.year > 2000", q.getSqlWhere());
+    assertEquals(3, phases.size());
+  }
+
   @Test
   public void testUserSql() throws Exception {
     HiveSqlQuery q =
@@ -109,6 +158,17 @@ public class HiveSqlQueryTest {
             "WHERE EXISTS (occurrence.classifications['uuid'], taxonkey -> taxonkey IN ('1', '2')) OR EXISTS (occurrence.classifications['uuid'], taxonkey -> taxonkey IN ('3', '4'))", q.getSql());
   }
 
+  @Test
+  public void testNestedExistsSql() throws Exception {
+    HiveSqlQuery q =
+            new HiveSqlQuery(hiveSqlValidator, "SELECT datasetKey from OCCURRENCE " +
+                    "WHERE EXISTS(classifications['uuid'], taxonkey -> (taxonkey IN ('1','2') OR taxonkey = '3'))" +
+                    " AND \"year\" > 2000");
+    assertEquals("SELECT datasetkey\n" +
+            "FROM occurrence\n" +
+            "WHERE EXISTS (occurrence.classifications['uuid'], taxonkey -> taxonkey IN ('1', '2') OR taxonkey = '3') AND occurrence.year > 2000", q.getSql());
+  }
+
   private static Stream<Arguments> provideSql() {
     return Stream.of(
         Arguments.of(
@@ -15,13 +15,24 @@ package org.gbif.occurrence.query.sql;
 
 import org.gbif.api.exception.QueryBuildingException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Stream;
 
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.SqlIdentifier;
 import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.tools.Frameworks;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -64,6 +75,61 @@ public class HiveSqlValidatorTest {
     assertTrue(select.toSqlString(catalogValidator.getDialect()).toString().contains(expectedFragment));
   }
 
+  @Test
+  public void testListener() throws Exception {
+    List<SqlQueryListener.Phase> phases = new ArrayList<>();
+    int[] sizes = new int[3];
+    HiveSqlValidator validator =
+        SqlValidatorTestUtil.createOccurrenceTableValidator(
+            TEST_CATALOG, recordingListener(phases, sizes));
+
+    String sql =
+        "SELECT gbifid FROM occurrence WHERE gbif_within('POLYGON ((30 10, 10 20, 20 40, 40 40, 30 10))', decimalLatitude, decimalLongitude)";
+    validator.validate(sql);
+    assertEquals(
+        Arrays.asList(
+            SqlQueryListener.Phase.PREPARE,
+            SqlQueryListener.Phase.PARSE,
+            SqlQueryListener.Phase.VALIDATE,
+            SqlQueryListener.Phase.ANALYZE),
+        phases);
+    assertTrue(sizes[0] > 5);
+    assertEquals(1, sizes[1]);
+    assertEquals(5, sizes[2]);
+
+    phases.clear();
+    validator.validate(sql, TEST_CATALOG);
+    assertEquals(
+        Arrays.asList(
+            SqlQueryListener.Phase.PREPARE,
+            SqlQueryListener.Phase.PARSE,
+            SqlQueryListener.Phase.VALIDATE,
+            SqlQueryListener.Phase.ANALYZE,
+            SqlQueryListener.Phase.CATALOG),
+        phases);
+
+    // Only completed phases are reported
+    phases.clear();
+    assertThrows(QueryBuildingException.class, () -> validator.validate("SELECT FROM"));
+    assertEquals(Collections.singletonList(SqlQueryListener.Phase.PREPARE), phases);
+  }
+
+  /**
+   * Catalogs are parsed like the rest of the query: they may have several parts, and quoted parts keep their case.
+   */
+  @Test
+  public void testMultiPartCatalog() throws Exception {
+    String sql = "SELECT gbifid FROM occurrence";
+    assertEquals(
+        Arrays.asList("Iceberg", "db", "occurrence"),
+        ((SqlIdentifier) hiveSqlValidator.validate(sql, "\"Iceberg\".\"db\"").getFrom()).names);
+    assertEquals(
+        Arrays.asList("iceberg", "db", "occurrence"),
+        ((SqlIdentifier) hiveSqlValidator.validate(sql, "Iceberg.DB").getFrom()).names);
+    assertThrows(
+        QueryBuildingException.class, () -> hiveSqlValidator.validate(sql, "iceberg; DROP"));
+  }
+
   /**
    * Check support exists for appropriate Hive functions
    * https://cwiki.apache.org/confluence/display/hive/languagemanual+udf
@@ -119,6 +185,64 @@ public class HiveSqlValidatorTest {
     hiveSqlValidator.validate(sql);
   }
 
+  /**
+   * Custom functions of one validator must not be visible to another, nor leak into Calcite's standard table.
+   */
+  @Test
+  public void testValidatorsWithDifferentFunctions() throws Exception {
+    String sql =
+        "SELECT gbifid FROM occurrence WHERE gbif_within('POLYGON ((30 10, 10 20, 20 40, 40 40, 30 10))', decimalLatitude, decimalLongitude)";
+
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    TestOccurrenceTable testTable = new TestOccurrenceTable("occurrence");
+    rootSchema.add(testTable.getTableName(), testTable);
+    HiveSqlValidator plainValidator = new HiveSqlValidator(rootSchema, Collections.emptyList());
+
+    hiveSqlValidator.validate(sql);
+    assertThrows(QueryBuildingException.class, () -> plainValidator.validate(sql));
+    hiveSqlValidator.validate(sql);
+
+    assertTrue(
+        SqlStdOperatorTable.instance().getOperatorList().stream()
+            .noneMatch(op -> op.getName().equalsIgnoreCase("gbif_within")));
+  }
+
+  @Test
+  public void testLimits() throws Exception {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    TestOccurrenceTable testTable = new TestOccurrenceTable("occurrence");
+    rootSchema.add(testTable.getTableName(), testTable);
+    SqlQueryLimits limits =
+        SqlQueryLimits.builder()
+            .maxBytes(200)
+            .maxTokens(30)
+            .maxLiterals(8)
+            .maxInListWidth(3)
+            .maxStringLength(20)
+            .maxNestingDepth(2)
+            .build();
+    HiveSqlValidator validator =
+        new HiveSqlValidator(
+            rootSchema, testTable.additionalOperators(), SqlQueryListener.NO_OP, limits);
+
+    validator.validate("SELECT gbifid FROM occurrence WHERE \"year\" IN (2000, 2001, 2002);");
+
+    String[][] rejected = {
+      {"SELECT gbifid FROM occurrence WHERE countrycode = '" + "x".repeat(200) + "'", "at most 200 bytes"},
+      {"SELECT gbifid FROM occurrence WHERE \"year\" = 1 OR \"year\" = 2 OR \"year\" = 3 OR \"year\" = 4"
+          + " OR \"year\" = 5 OR \"year\" = 6 OR \"year\" = 7 OR \"year\" = 8", "tokens"},
+      {"SELECT 1, 2, 3, 4, 5, 6, 7, 8, 9 FROM occurrence", "literals"},
+      {"SELECT gbifid FROM occurrence WHERE \"year\" IN (2000, 2001, 2002, 2003)", "IN lists"},
+      {"SELECT gbifid FROM occurrence WHERE countrycode = '123456789012345678901'", "strings"},
+      {"SELECT gbifid FROM occurrence WHERE ((( \"year\" = 2000)))", "nests parentheses"}
+    };
+    for (String[] sqlAndError : rejected) {
+      QueryBuildingException e =
+          assertThrows(QueryBuildingException.class, () -> validator.validate(sqlAndError[0]));
+      assertTrue(e.getMessage().contains(sqlAndError[1]), e.getMessage());
+    }
+  }
+
   private static Stream<Arguments> provideStringsForExistsLambda() {
     return Stream.of(
             Arguments.of(
@@ -527,4 +651,22 @@ public class HiveSqlValidatorTest {
           "function expressions must have an alias")
     );
   }
+
+  private static SqlQueryListener recordingListener(
+      List<SqlQueryListener.Phase> phases, int[] sizes) {
+    return new SqlQueryListener() {
+      @Override
+      public void phaseCompleted(Phase phase, long durationNanos) {
+        assertTrue(durationNanos >= 0);
+        phases.add(phase);
+      }
+
+      @Override
+      public void queryAnalyzed(int nodeCount, int literalCount, int pointsCount) {
+        sizes[0] = nodeCount;
+        sizes[1] = literalCount;
+        sizes[2] = pointsCount;
+      }
+    };
+  }
 }
@@ -57,6 +57,18 @@ public class SqlCounterTest {
     assertEquals(5 + 5, q.getPointsCount());
   }
 
+  @Test
+  public void testSqlCountLargeIn() throws Exception {
+    StringBuilder sql = new StringBuilder("SELECT gbifid FROM occurrence WHERE speciesKey IN (1");
+    for (int i = 2; i <= 5000; i++) {
+      sql.append(", ").append(i);
+    }
+    sql.append(") AND \"year\" > 2000");
+
+    HiveSqlQuery q = new HiveSqlQuery(hiveSqlValidator, sql.toString());
+    assertEquals(5000 + 1 + 1, q.getPredicateCount());
+  }
+
   @Test
   public void testCountNull() throws Exception {
     HiveSqlQuery q = new HiveSqlQuery(hiveSqlValidator, "SELECT gbifid FROM occurrence");
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.occurrence.query.sql;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SqlPreprocessorTest {
+
+  @ParameterizedTest
+  @MethodSource("provideSql")
+  public void testProcess(String sql, String expected) {
+    assertEquals(expected, SqlPreprocessor.process(sql).getSql());
+  }
+
+  private static Stream<Arguments> provideSql() {
+    return Stream.of(
+        Arguments.of("SELECT 1 FROM t", "SELECT 1 FROM t"),
+        // Trailing semicolons
+        Arguments.of("SELECT 1 FROM t;", "SELECT 1 FROM t"),
+        Arguments.of("SELECT 1 FROM t ; ;\n ", "SELECT 1 FROM t"),
+        Arguments.of("SELECT 1 FROM t; -- done", "SELECT 1 FROM t"),
+        Arguments.of("SELECT 1 FROM t -- done;", "SELECT 1 FROM t -- done;"),
+        Arguments.of("SELECT ';' FROM t", "SELECT ';' FROM t"),
+        Arguments.of("SELECT 1; SELECT 2", "SELECT 1; SELECT 2"),
+        // Lambdas
+        Arguments.of(
+            "EXISTS(c['uuid'], taxonkey -> taxonkey IN ('1','2'))",
+            "EXISTS(c['uuid'], TAXON_LOOKUP(taxonkey , taxonkey IN ('1','2')))"),
+        Arguments.of(
+            "EXISTS(c, x -> (x IN ('1','2') OR x = ')'), d)",
+            "EXISTS(c, TAXON_LOOKUP(x , (x IN ('1','2') OR x = ')')), d)"),
+        Arguments.of(
+            "EXISTS(c, x->x = '->') OR EXISTS(d, y -> y = 1);",
+            "EXISTS(c, TAXON_LOOKUP(x,x = '->')) OR EXISTS(d, TAXON_LOOKUP(y , y = 1))"),
+        Arguments.of("f(x /* -> */, y) -- x -> y", "f(x /* -> */, y) -- x -> y"),
+        Arguments.of("x -> y = 1 -- end", "TAXON_LOOKUP(x , y = 1) -- end"),
+        Arguments.of("a -> b -> c", "TAXON_LOOKUP(a , TAXON_LOOKUP(b , c))"));
+  }
+
+  @Test
+  public void testCounts() {
+    SqlPreprocessor p =
+        SqlPreprocessor.process(
+            "SELECT \"year\", 'a''b' /* 'c' */ FROM t WHERE x IN (1, 2.5, 1e3) -- 4\n;");
+    // SELECT "year" , 'a''b' FROM t WHERE x IN ( 1 , 2.5 , 1e3 ) ;
+    assertEquals(17, p.getTokenCount());
+    assertEquals(4, p.getLiteralCount());
+    assertEquals(3, p.getMaxInListWidth());
+    assertEquals(1, p.getMaxNestingDepth());
+    assertEquals(4, p.getMaxStringLength());
+
+    p = SqlPreprocessor.process("SELECT f(g(x) IN (1, 2), y NOT IN ((1, 2), (3, 4), (5, 6))) IN ('(', ')')");
+    assertEquals(3, p.getMaxInListWidth());
+    assertEquals(3, p.getMaxNestingDepth());
+  }
+
+  @Test
+  public void testLargeQuery() {
+    StringBuilder sql = new StringBuilder("SELECT datasetkey FROM occurrence WHERE ");
+    for (int i = 0; i < 100_000; i++) {
+      sql.append("EXISTS(classifications['uuid'], taxonkey -> taxonkey IN ('").append(i).append("')) OR ");
+    }
+    sql.append("FALSE;");
+
+    SqlPreprocessor p = SqlPreprocessor.process(sql.toString());
+    assertTrue(p.getSql().endsWith("taxonkey IN ('99999'))) OR FALSE"));
+    assertEquals(200_000, p.getLiteralCount());
+  }
+}
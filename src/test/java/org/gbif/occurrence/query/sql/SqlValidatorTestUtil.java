@@ -27,6 +27,11 @@ import lombok.experimental.UtilityClass;
 public class SqlValidatorTestUtil {
 
   public static HiveSqlValidator createOccurrenceTableValidator(String catalog) {
+    return createOccurrenceTableValidator(catalog, SqlQueryListener.NO_OP);
+  }
+
+  public static HiveSqlValidator createOccurrenceTableValidator(
+      String catalog, SqlQueryListener listener) {
 
     SchemaPlus rootSchema = Frameworks.createRootSchema(true);
 
@@ -45,7 +50,7 @@ public class SqlValidatorTestUtil {
         });
     rootSchema.add(testTable.getTableName(), testTable);
 
-    return new HiveSqlValidator(rootSchema, testTable.additionalOperators());
+    return new HiveSqlValidator(rootSchema, testTable.additionalOperators(), listener);
   }
 
   public static HiveSqlValidator createOccurrenceTableValidator() {